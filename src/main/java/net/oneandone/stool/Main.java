@@ -39,6 +39,7 @@ import net.oneandone.stool.cli.command.Ssh;
 import net.oneandone.stool.cli.command.Status;
 import net.oneandone.stool.cli.command.Validate;
 import net.oneandone.stool.cli.command.Version;
+import net.oneandone.stool.util.LineWriter;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.http.HttpFilesystem;
@@ -86,10 +87,10 @@ public class Main {
         PrintWriter out;
 
         if (testHome != null) {
-            out = new PrefixWriter(testHome.getParent().join("client.log").newAppender());
+            out = new PrefixWriter(new LineWriter(testHome.getParent().join("client.log").newAppender()));
             console = new Console(out, out, System.in);
         } else {
-            out = new PrefixWriter(new PrintWriter(System.out));
+            out = new PrefixWriter(new LineWriter(new PrintWriter(System.out)));
             console = new Console(out, out, System.in);
         }
         globals = Globals.create(console, world, testHome, "stool " + Separator.SPACE.join(args));
@@ -103,7 +104,7 @@ public class Main {
         });
         cli.primitive(FileNode.class, "file name", null, world::file);
         cli.begin(globals.getConsole(), "-v -e  { setVerbose(v) setStacktraces(e) }");
-          cli.begin("globals", globals,  "-context -wirelog -exception { setContext(context) setWirelog(wirelog) setException(exception) }");
+          cli.begin("globals", globals,  "-context -wirelog -exception -parallel=1 { setContext(context) setWirelog(wirelog) setException(exception) setParallel(parallel) }");
             cli.add(Version.class, "version");
             cli.add(Server.class, "server");
             cli.addDefault(Help.class, "help command?");
@@ -118,8 +119,8 @@ public class Main {
               cli.add(Detach.class, "detach stage workspace");
               cli.add(Config.class, "config stage value* { value*(value) }");
               cli.add(History.class, "history stage");
-              cli.add(Ls.class, "list -hidden stage?= info* { select*(info) }");
-              cli.add(Status.class, "status -hidden stage info* { select*(info) }");
+              cli.add(Ls.class, "list -hidden -contexts -allContexts stage?= info* { select*(info) setContexts(contexts) setAllContexts(allContexts) }");
+              cli.add(Status.class, "status -hidden -contexts -allContexts stage info* { select*(info) setContexts(contexts) setAllContexts(allContexts) }");
               cli.add(Delete.class, "delete -batch stage");
               cli.add(Remove.class, "remove stage");
               cli.add(Publish.class, "publish -dryrun -allow stage directionsAndValues*");
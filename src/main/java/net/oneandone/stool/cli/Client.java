@@ -16,6 +16,7 @@
 package net.oneandone.stool.cli;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.directions.DirectionsRef;
 import net.oneandone.stool.util.Diff;
 
@@ -65,6 +66,34 @@ public abstract class Client {
     public abstract Map<String, String> create(String stageName, DirectionsRef directionsRef, Map<String, String> values) throws IOException;
 
     public abstract Diff publish(String stage, boolean dryrun, String allow, DirectionsRef directionsRefOpt, Map<String, String> values) throws IOException;
+
+    /** receives the results of a bulk publish, one stage at a time */
+    public interface PublishListener {
+        /** @param diffOpt null if the publish failed, errorOpt null if it succeeded */
+        void published(String stage, Diff diffOpt, String errorOpt) throws IOException;
+    }
+
+    /**
+     * Publishes all stages matching the filter. This implementation publishes them one after the other.
+     * @param stopOnFailure to not start further publishes after a publish failed
+     */
+    public void publishAll(String filter, boolean dryrun, String allow, DirectionsRef directionsRefOpt, Map<String, String> values,
+                           boolean stopOnFailure, PublishListener listener) throws IOException {
+        Diff diff;
+
+        for (String stage : list(filter)) {
+            try {
+                diff = publish(stage, dryrun, allow, directionsRefOpt, values);
+            } catch (IOException | ArgumentException e) {
+                listener.published(stage, null, e.getMessage());
+                if (stopOnFailure) {
+                    return;
+                }
+                continue;
+            }
+            listener.published(stage, diff, null);
+        }
+    }
     public abstract Map<String, String> awaitAvailable(String stage) throws IOException;
     public abstract void delete(String stage) throws IOException;
     public abstract Map<String, Map<String, String>> getValues(String stage) throws IOException;
@@ -15,6 +15,7 @@
  */
 package net.oneandone.stool.cli;
 
+import net.oneandone.inline.ArgumentException;
 import net.oneandone.inline.Console;
 import net.oneandone.stool.cli.command.StageCommand;
 import net.oneandone.stool.core.Settings;
@@ -43,6 +44,8 @@ public class Globals {
     protected StageCommand.Fail fail = StageCommand.Fail.NORMAL;
     private String context;
     private FileNode wirelog;
+    /** number of stages processed concurrently by stage commands */
+    private int parallel;
 
     public Globals(Console console, World world, FileNode home, String invocation, String command) {
         this.console = console;
@@ -52,6 +55,7 @@ public class Globals {
         this.command = command;
         this.context = null;
         this.wirelog = null;
+        this.parallel = 1;
     }
 
     public Workspace workspaceLoadOrCreate(String name) throws IOException {
@@ -100,6 +104,17 @@ public class Globals {
         this.fail = fail;
     }
 
+    public int getParallel() {
+        return parallel;
+    }
+
+    public void setParallel(int parallel) {
+        if (parallel < 1) {
+            throw new ArgumentException("invalid parallel value: " + parallel);
+        }
+        this.parallel = parallel;
+    }
+
     public void setContext(String context) {
         this.context = context;
     }
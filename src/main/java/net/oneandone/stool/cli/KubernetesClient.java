@@ -22,7 +22,9 @@ import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.directions.Directions;
 import net.oneandone.stool.core.LocalSettings;
 import net.oneandone.stool.core.Field;
+import net.oneandone.stool.core.FieldContext;
 import net.oneandone.stool.directions.DirectionsRef;
+import net.oneandone.stool.directions.DirectionsCache;
 import net.oneandone.stool.directions.Chartkit;
 import net.oneandone.stool.kubernetes.Engine;
 import net.oneandone.stool.kubernetes.PodInfo;
@@ -33,6 +35,7 @@ import net.oneandone.stool.core.Stage;
 import net.oneandone.stool.core.HistoryEntry;
 import net.oneandone.stool.util.Diff;
 import net.oneandone.stool.util.Pair;
+import net.oneandone.stool.util.RateLimiter;
 import net.oneandone.stool.core.PredicateParser;
 import net.oneandone.stool.core.Validation;
 import net.oneandone.stool.directions.Variable;
@@ -43,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import javax.mail.MessagingException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -51,9 +55,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class KubernetesClient extends Client {
     public static final Logger LOGGER = LoggerFactory.getLogger(KubernetesClient.class);
@@ -82,17 +90,19 @@ public class KubernetesClient extends Client {
         Map<String, IOException> problems;
         Map<String, JsonNode> s;
         List<String> remaining;
+        FieldContext context;
 
         result = new HashMap<>();
         problems = new HashMap<>();
         try (Engine engine = engine()) {
-            for (Stage stage : localSettings.list(engine, new PredicateParser(engine).parse(filter), problems)) {
+            context = localSettings.fieldContext(engine);
+            for (Stage stage : localSettings.list(engine, new PredicateParser(context).parse(filter), problems)) {
                 s = new HashMap<>();
                 result.put(stage.getName(), s);
                 remaining = new ArrayList<>(select);
-                for (Field property : stage.fields()) {
+                for (Field property : Stage.fields()) {
                     if ((select.isEmpty() && (hidden || !property.hidden)) || remaining.remove(property.name())) {
-                        s.put(property.name(), property.getAsJson(json, engine));
+                        s.put(property.name(), property.getAsJson(json, stage, context));
                     }
                 }
                 // add values explicitly selected
@@ -140,6 +150,111 @@ public class KubernetesClient extends Client {
         }
     }
 
+    /**
+     * Publishes concurrently, limited by publishParallelism and publishRate. A failing stage is reported to the listener,
+     * whatever the exception. Running publishes are never interrupted - killing helm halfway through an upgrade leaves
+     * the release pending - so this method returns when they have completed, even if the listener failed.
+     */
+    @Override
+    public void publishAll(String filter, boolean dryrun, String allow, DirectionsRef directionsRefOpt, Map<String, String> values,
+                           boolean stopOnFailure, PublishListener listener) throws IOException {
+        List<String> stages;
+        RateLimiter limiter;
+        ExecutorService executor;
+        List<Future<?>> futures;
+        AtomicBoolean failed;
+        AtomicBoolean aborted;
+
+        stages = list(filter);
+        if (stages.isEmpty()) {
+            return;
+        }
+        limiter = RateLimiter.getOpt(kubernetesContext == null ? "" : kubernetesContext, localSettings.publishRate);
+        failed = new AtomicBoolean();
+        aborted = new AtomicBoolean();
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(localSettings.publishParallelism, stages.size())));
+        try {
+            futures = new ArrayList<>(stages.size());
+            for (String stage : stages) {
+                futures.add(executor.submit(() -> {
+                    Diff diff;
+
+                    if (aborted.get() || stopOnFailure && failed.get()) {
+                        return null;
+                    }
+                    if (limiter != null) {
+                        limiter.acquire();
+                        if (aborted.get()) {
+                            return null;
+                        }
+                    }
+                    try {
+                        diff = publish(stage, dryrun, allow, directionsRefOpt, values);
+                    } catch (IOException | ArgumentException e) {
+                        failed.set(true);
+                        synchronized (listener) {
+                            listener.published(stage, null, e.getMessage());
+                        }
+                        return null;
+                    } catch (RuntimeException e) {
+                        LOGGER.error("publish failed: " + stage, e);
+                        failed.set(true);
+                        synchronized (listener) {
+                            listener.published(stage, null, e.toString());
+                        }
+                        return null;
+                    }
+                    synchronized (listener) {
+                        listener.published(stage, diff, null);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    } else if (e.getCause() instanceof RuntimeException re) {
+                        throw re;
+                    } else {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+        } finally {
+            aborted.set(true);
+            awaitRunning(executor);
+        }
+    }
+
+    /** does not start queued tasks, but waits for running ones; keeps waiting if interrupted */
+    private static void awaitRunning(ExecutorService executor) {
+        boolean interrupted;
+        boolean terminated;
+
+        executor.shutdown();
+        interrupted = false;
+        terminated = false;
+        while (!terminated) {
+            try {
+                terminated = executor.awaitTermination(1, TimeUnit.MINUTES);
+                if (!terminated) {
+                    LOGGER.info("waiting for running publishes to complete");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public String version() throws IOException {
         return Main.versionString(localSettings.world);
@@ -160,7 +275,7 @@ public class KubernetesClient extends Client {
 
         result = new LinkedHashMap<>();
         try (Engine engine = engine()) {
-            stage = localSettings.load(engine, stageName);
+            stage = localSettings.lookup(engine, stageName);
             for (Variable variable : stage.variables()) {
                 if (!variable.priv) {
                     pair = stage.configuration.layerAndExpression(variable);
@@ -215,6 +330,7 @@ public class KubernetesClient extends Client {
 
     private static final String IMAGE = "image:";
     private static final String DIRECTIONS = "directions:";
+    private static final String CACHE = "cache:";
 
     @Override
     public List<String> describe(String ref) throws IOException {
@@ -225,9 +341,39 @@ public class KubernetesClient extends Client {
         if (ref.startsWith(DIRECTIONS)) {
             return directions(ref.substring(DIRECTIONS.length()));
         }
+        if (ref.startsWith(CACHE)) {
+            return cache(ref.substring(CACHE.length()));
+        }
         throw new IOException("unknown reference: " + ref);
     }
 
+    /** @param digest prefix of the digests to show, with their directions */
+    private List<String> cache(String digest) throws IOException {
+        DirectionsCache cache;
+        List<String> result;
+
+        cache = localSettings.directionsCacheOpt();
+        if (cache == null) {
+            throw new ArgumentException("directions cache is disabled");
+        }
+        result = new ArrayList<>();
+        for (DirectionsCache.Entry entry : cache.list()) {
+            if (!entry.digest.startsWith(digest)) {
+                continue;
+            }
+            result.add(entry.digest);
+            result.add("   image:      " + entry.image);
+            result.add("   created-by: " + entry.author);
+            if (!digest.isEmpty()) {
+                result.add("   directions:");
+                for (String line : localSettings.yaml.writeValueAsString(entry.directions()).split("\n")) {
+                    result.add("     " + line);
+                }
+            }
+        }
+        return result;
+    }
+
     private List<String> directions(String name) throws IOException {
         int idx;
         String select;
@@ -254,7 +400,7 @@ public class KubernetesClient extends Client {
 
         registry = localSettings.createRegistry(imageName);
         path = Registry.getRepositoryPath(Registry.toRepository(imageName));
-        all = registry.list(path);
+        all = registry.list(path, localSettings.registryParallelism, localSettings.registryTimeout);
         result = new ArrayList<>();
         for (TagInfo image : all) {
             result.add(image.tag);
@@ -336,7 +482,7 @@ public class KubernetesClient extends Client {
         List<String> result;
 
         try (Engine engine = engine()) {
-            s = localSettings.load(engine, name);
+            s = localSettings.lookup(engine, name);
             result = new ArrayList<>(s.history.size());
             for (HistoryEntry entry : s.history) {
                 result.add(entry.toString());
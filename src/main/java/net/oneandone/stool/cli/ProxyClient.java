@@ -34,6 +34,7 @@ import net.oneandone.sushi.fs.http.model.ProtocolException;
 import net.oneandone.sushi.fs.http.model.Request;
 import net.oneandone.sushi.util.Separator;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -164,6 +165,47 @@ public class ProxyClient extends Client {
         return Diff.fromList(Json.list((ArrayNode) postJson(node, "")));
     }
 
+    /** server-side bulk publish, results are streamed back as they become available */
+    @Override
+    public void publishAll(String filter, boolean dryrun, String allow, DirectionsRef directionsRefOpt, Map<String, String> values,
+                           boolean stopOnFailure, PublishListener listener) throws IOException {
+        HttpNode node;
+
+        node = node("publish").withParameter("filter", filter);
+        if (directionsRefOpt != null) {
+            node = node.withParameter("directionsref", directionsRefOpt.serialize());
+        }
+        if (dryrun) {
+            node = node.withParameter("dryrun", dryrun);
+        }
+        if (allow != null) {
+            node = node.withParameter("allow", allow);
+        }
+        if (stopOnFailure) {
+            node = node.withParameter("stopOnFailure", stopOnFailure);
+        }
+        node = node.withParameters("value.", values);
+        stream(node, body(""), "POST", src -> {
+            BufferedReader lines;
+            String line;
+            ObjectNode obj;
+
+            lines = new BufferedReader(reader(src));
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                obj = (ObjectNode) json.readTree(line);
+                if (obj.has("diff")) {
+                    listener.published(obj.get("stage").asText(), Diff.fromList(Json.list((ArrayNode) obj.get("diff"))), null);
+                } else {
+                    listener.published(obj.get("stage").asText(), null, obj.get("error").asText());
+                }
+            }
+            return null;
+        }, 200);
+    }
+
     @Override
     public Map<String, String> awaitAvailable(String stage) throws IOException {
         return Json.stringMap((ObjectNode) getJson(node(stage, "await-available")));
@@ -251,10 +293,14 @@ public class ProxyClient extends Client {
     }
 
     private JsonNode postJson(HttpNode node, String body) throws IOException {
+        return postJson(node, body(body));
+    }
+
+    private Body body(String str) {
         byte[] bytes;
 
-        bytes = node.getWorld().getSettings().bytes(body);
-        return postJson(node, new Body(null, null, (long) bytes.length, new ByteArrayInputStream(bytes), false));
+        bytes = root.getWorld().getSettings().bytes(str);
+        return new Body(null, null, (long) bytes.length, new ByteArrayInputStream(bytes), false);
     }
 
     private JsonNode postJson(HttpNode node, Body body) throws IOException {
@@ -262,6 +308,15 @@ public class ProxyClient extends Client {
     }
 
     private JsonNode stream(HttpNode node, Body body, String method, int... success) throws IOException {
+        return stream(node, body, method, src -> json.readTree(reader(src)), success);
+    }
+
+    /** processes a successful response */
+    private interface Handler<T> {
+        T handle(InputStream src) throws IOException;
+    }
+
+    private <T> T stream(HttpNode node, Body body, String method, Handler<T> handler, int... success) throws IOException {
         int code;
 
         try (Request.ResponseStream src = Request.streamResponse(node, method, body, null)) {
@@ -280,7 +335,7 @@ public class ProxyClient extends Client {
                 default:
                     for (int c : success) {
                         if (code == c) {
-                            return json.readTree(reader(src));
+                            return handler.handle(src);
                         }
                     }
                     throw new IOException(node.getUri() + " returned http response code " + src.getStatusLine().code + "\n" + string(src));
@@ -28,22 +28,22 @@ public class CompoundResult extends Exception {
         results = new HashMap<>();
     }
 
-    public int size() {
+    public synchronized int size() {
         return results.size();
     }
 
-    public void success(Reference reference) {
+    public synchronized void success(Reference reference) {
         results.put(reference, null);
     }
 
-    public void failure(Reference reference, Exception cause) {
+    public synchronized void failure(Reference reference, Exception cause) {
         results.put(reference, cause);
         addSuppressed(cause);
     }
 
     /** @return null when there's no message */
     @Override
-    public String getMessage() {
+    public synchronized String getMessage() {
         StringBuilder result;
 
         if (getSuppressed().length == 0) {
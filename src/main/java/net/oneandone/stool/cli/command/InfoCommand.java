@@ -16,43 +16,185 @@
 package net.oneandone.stool.cli.command;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import net.oneandone.inline.ArgumentException;
+import net.oneandone.stool.cli.Caller;
 import net.oneandone.stool.cli.Client;
+import net.oneandone.stool.cli.Context;
 import net.oneandone.stool.cli.Globals;
 import net.oneandone.stool.core.Settings;
+import net.oneandone.sushi.util.Separator;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public abstract class InfoCommand extends StageCommand {
     protected final List<String> selected = new ArrayList<>();
+    protected final boolean hidden;
+    /** comma-separated context names; null for the current context */
+    private String contextsOpt;
+    private boolean allContexts;
 
-    public InfoCommand(Globals globals, String stage) {
+    public InfoCommand(Globals globals, boolean hidden, String stage) {
         super(globals, stage);
+        this.hidden = hidden;
+        this.contextsOpt = null;
+        this.allContexts = false;
     }
 
     public void select(String str) {
         selected.add(str);
     }
 
+    public void setContexts(String contexts) {
+        this.contextsOpt = contexts;
+    }
+
+    public void setAllContexts(boolean allContexts) {
+        this.allContexts = allContexts;
+    }
+
+    /** @return true if stages are listed from other contexts than the current one */
+    protected boolean multiContext() {
+        return contextsOpt != null || allContexts;
+    }
+
     @Override
     public CompoundResult runAll() throws Exception {
-        Map<Client, String> clientFilters;
         Settings settings;
+        Client client;
+        Map<Client, Map<String, Map<String, JsonNode>>> responses;
         CompoundResult result;
 
         settings = globals.settings();
-        clientFilters = new LinkedHashMap<>();
-        clientFilters.put(settings.currentContextConnect(globals.caller()), stageClause);
+        if (multiContext()) {
+            responses = listAll(settings, contexts(settings));
+        } else {
+            client = settings.currentContextConnect(globals.caller());
+            responses = new LinkedHashMap<>();
+            responses.put(client, client.list(stageClause, selected, hidden));
+        }
         result = new CompoundResult();
-        for (Map.Entry<Client, String> entry : clientFilters.entrySet()) {
+        for (Map.Entry<Client, Map<String, Map<String, JsonNode>>> entry : responses.entrySet()) {
             doRun(entry.getKey(), entry.getValue(), result);
         }
         return result;
     }
 
+    private List<Context> contexts(Settings settings) {
+        List<Context> result;
+        Context context;
+
+        if (allContexts) {
+            if (contextsOpt != null) {
+                throw new ArgumentException("-contexts and -allContexts are mutually exclusive");
+            }
+            return new ArrayList<>(settings.contexts().values());
+        }
+        result = new ArrayList<>();
+        for (String name : Separator.COMMA.split(contextsOpt)) {
+            context = settings.contextLookup(name);
+            if (context == null) {
+                throw new ArgumentException("no such context: " + name);
+            }
+            result.add(context);
+        }
+        return result;
+    }
+
+    private static class Listing {
+        public final Client client;
+        public final Map<String, Map<String, JsonNode>> response;
+
+        Listing(Client client, Map<String, Map<String, JsonNode>> response) {
+            this.client = client;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Lists all contexts concurrently, each within settings.local.contextTimeout seconds. Contexts failing or timing out
+     * are reported as a warning, and the result contains the others, so a slow or broken cluster does not hide the rest.
+     *
+     * @return in context order
+     */
+    private Map<Client, Map<String, Map<String, JsonNode>>> listAll(Settings settings, List<Context> contexts) throws IOException {
+        Caller caller;
+        int timeout;
+        long deadline;
+        ExecutorService executor;
+        List<Future<Listing>> futures;
+        Listing listing;
+        Map<Client, Map<String, Map<String, JsonNode>>> result;
+        IOException first;
+
+        if (contexts.isEmpty()) {
+            throw new ArgumentException("no contexts");
+        }
+        caller = globals.caller();
+        timeout = settings.local.contextTimeout;
+        result = new LinkedHashMap<>();
+        first = null;
+        executor = Executors.newFixedThreadPool(contexts.size());
+        try {
+            futures = new ArrayList<>(contexts.size());
+            for (Context context : contexts) {
+                futures.add(executor.submit(() -> {
+                    Client client;
+
+                    client = context.connect(settings.local, caller);
+                    return new Listing(client, client.list(stageClause, selected, hidden));
+                }));
+            }
+            deadline = System.currentTimeMillis() + timeout * 1000L;
+            for (int i = 0; i < contexts.size(); i++) {
+                try {
+                    listing = await(contexts.get(i).name, futures.get(i), timeout == 0 ? -1 : deadline - System.currentTimeMillis());
+                    result.put(listing.client, listing.response);
+                } catch (IOException e) {
+                    console.error.println("WARNING: " + e.getMessage());
+                    if (first == null) {
+                        first = e;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (result.isEmpty()) {
+            throw first;
+        }
+        return result;
+    }
+
+    /** @param millis negative to wait forever */
+    private static Listing await(String context, Future<Listing> future, long millis) throws IOException {
+        Throwable cause;
+
+        try {
+            return millis < 0 ? future.get() : future.get(Math.max(0, millis), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(context + ": interrupted");
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException(context + ": timeout");
+        } catch (ExecutionException e) {
+            // including runtime exceptions, e.g. an ArgumentException for a context that cannot connect
+            cause = e.getCause();
+            throw new IOException(context + ": " + (cause.getMessage() == null ? cause.toString() : cause.getMessage()), cause);
+        }
+    }
+
     public static String infoToString(JsonNode info) {
         StringBuilder result;
         Iterator<JsonNode> array;
@@ -89,5 +231,6 @@ public abstract class InfoCommand extends StageCommand {
         }
     }
 
-    public abstract void doRun(Client client, String clientFilter, CompoundResult result) throws Exception;
+    /** @param response stage names to infos, as returned by client.list */
+    public abstract void doRun(Client client, Map<String, Map<String, JsonNode>> response, CompoundResult result) throws Exception;
 }
@@ -18,10 +18,17 @@ package net.oneandone.stool.cli.command;
 import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.cli.Globals;
 import net.oneandone.stool.cli.Reference;
+import net.oneandone.stool.util.LineWriter;
 import net.oneandone.sushi.io.PrefixWriter;
 import net.oneandone.sushi.util.Strings;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class IteratedStageCommand extends StageCommand {
     public IteratedStageCommand(Globals globals, String stage) {
@@ -35,6 +42,7 @@ public abstract class IteratedStageCommand extends StageCommand {
         List<Reference> lst;
         int width;
         boolean withPrefix;
+        int parallel;
         CompoundResult failures;
         Worker worker;
 
@@ -45,15 +53,78 @@ public abstract class IteratedStageCommand extends StageCommand {
         }
         width += 5;
         withPrefix = lst.size() != 1;
+        parallel = parallelizable() ? Math.min(globals.getParallel(), lst.size()) : 1;
         failures = new CompoundResult();
-        worker = new Worker(width, failures, withPrefix);
-        for (Reference reference : lst) {
-            worker.main(reference);
+        worker = new Worker(width, failures, withPrefix, parallel > 1);
+        if (parallel > 1) {
+            runParallel(worker, lst, parallel);
+        } else {
+            for (Reference reference : lst) {
+                worker.main(reference);
+            }
+            for (Reference reference : lst) {
+                worker.finish(reference);
+            }
+        }
+        return failures;
+    }
+
+    /** override this to return false if your command cannot run concurrently for multiple stages, e.g. because it's interactive */
+    protected boolean parallelizable() {
+        return true;
+    }
+
+    /** like the sequential loops, but both phases run on a pool, so up to threads stages are processed concurrently */
+    private void runParallel(Worker worker, List<Reference> lst, int threads) throws Exception {
+        ExecutorService executor;
+
+        executor = Executors.newFixedThreadPool(threads);
+        try {
+            phase(executor, worker, lst, true);
+            phase(executor, worker, lst, false);
+        } finally {
+            executor.shutdownNow();
         }
+    }
+
+    /** stops starting stages after the first one that throws, waits for those already running, and re-throws */
+    private static void phase(ExecutorService executor, Worker worker, List<Reference> lst, boolean main) throws Exception {
+        AtomicBoolean aborted;
+        List<Future<?>> futures;
+        Throwable first;
+
+        aborted = new AtomicBoolean(false);
+        futures = new ArrayList<>();
         for (Reference reference : lst) {
-            worker.finish(reference);
+            futures.add(executor.submit(() -> {
+                if (aborted.get()) {
+                    return null;
+                }
+                try {
+                    worker.run(reference, main);
+                } catch (Exception | Error e) {
+                    aborted.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        first = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (first == null) {
+                    first = e.getCause();
+                }
+            }
+        }
+        if (first instanceof Error e) {
+            throw e;
+        }
+        if (first != null) {
+            throw (Exception) first;
         }
-        return failures;
     }
 
     //--
@@ -77,11 +148,14 @@ public abstract class IteratedStageCommand extends StageCommand {
         private final int width;
         private final CompoundResult failures;
         private final boolean withPrefix;
+        /** true to buffer output line-wise instead of setting the prefix of the shared PrefixWriter */
+        private final boolean concurrent;
 
-        public Worker(int width, CompoundResult failures, boolean withPrefix) {
+        public Worker(int width, CompoundResult failures, boolean withPrefix, boolean concurrent) {
             this.width = width;
             this.failures = failures;
             this.withPrefix = withPrefix;
+            this.concurrent = concurrent;
         }
 
         public void main(Reference reference) throws Exception {
@@ -93,8 +167,14 @@ public abstract class IteratedStageCommand extends StageCommand {
         }
 
         private void run(Reference referece, boolean main) throws Exception {
-            if (withPrefix) {
-                ((PrefixWriter) console.info).setPrefix(Strings.padLeft("{" + referece + "} ", width));
+            String prefix;
+            String rest;
+
+            prefix = withPrefix ? Strings.padLeft("{" + referece + "} ", width) : "";
+            if (concurrent) {
+                LineWriter.begin(prefix);
+            } else if (withPrefix) {
+                ((PrefixWriter) console.info).setPrefix(prefix);
             }
             try {
                 if (main) {
@@ -117,7 +197,12 @@ public abstract class IteratedStageCommand extends StageCommand {
                 }
                 failures.failure(referece, e);
             } finally {
-                if (console.info instanceof PrefixWriter w) {
+                if (concurrent) {
+                    rest = LineWriter.end();
+                    if (rest != null) {
+                        console.info.println(rest);
+                    }
+                } else if (console.info instanceof PrefixWriter w) {
                     w.setPrefix("");
                 }
             }
@@ -28,13 +28,14 @@ import java.util.List;
 import java.util.Map;
 
 public class Ls extends InfoCommand {
+    /** column name for the context of a stage; not a stage info */
+    private static final String CONTEXT = "context";
+
     /** to delay output until I can determine column widths*/
     private final LinkedHashMap<String, List<String>> columns;
-    private final boolean hidden;
 
     public Ls(Globals globals, boolean hidden, String stage) {
-        super(globals, stage);
-        this.hidden = hidden;
+        super(globals, hidden, stage);
         this.columns = new LinkedHashMap<>();
     }
 
@@ -58,6 +59,9 @@ public class Ls extends InfoCommand {
         for (String infoName : selected) {
             columns.put(infoName, new ArrayList<>());
         }
+        if (multiContext()) {
+            columns.put(CONTEXT, new ArrayList<>());
+        }
     }
 
     private void doAfter() {
@@ -87,14 +91,14 @@ public class Ls extends InfoCommand {
 
 
     @Override
-    public void doRun(Client client, String clientFilter, CompoundResult result) throws Exception {
-        Map<String, Map<String, JsonNode>> response;
-
-        response = client.list(clientFilter, selected, hidden);
+    public void doRun(Client client, Map<String, Map<String, JsonNode>> response, CompoundResult result) throws Exception {
         for (Map.Entry<String, Map<String, JsonNode>> stage : response.entrySet()) {
             for (Map.Entry<String, JsonNode> entry : stage.getValue().entrySet()) {
                 columns.get(entry.getKey()).add(infoToString(entry.getValue()));
             }
+            if (multiContext()) {
+                columns.get(CONTEXT).add(client.getContext());
+            }
             result.success(new Reference(client, stage.getKey()));
         }
     }
@@ -15,6 +15,7 @@
  */
 package net.oneandone.stool.cli.command;
 
+import net.oneandone.stool.cli.Client;
 import net.oneandone.stool.cli.Globals;
 import net.oneandone.stool.cli.Reference;
 import net.oneandone.stool.directions.DirectionsRef;
@@ -30,9 +31,12 @@ public class Publish extends IteratedStageCommand {
     private final String allow;
     private final DirectionsRef directionsRefOpt;
     private final Map<String, String> values;
+    /** true to publish with a single bulk request */
+    private final boolean bulk;
 
     public Publish(Globals globals, boolean dryrun, String allow, String stage, List<String> directionsAndVariables) throws IOException {
         super(globals, stage);
+        this.bulk = stage.startsWith("%");
         this.dryrun = dryrun;
         this.allow = allow;
         this.directionsRefOpt = eatDirectionsRefOpt(directionsAndVariables);
@@ -46,6 +50,41 @@ public class Publish extends IteratedStageCommand {
         return DirectionsRef.create(globals.getWorld(), args.remove(0));
     }
 
+    @Override
+    public CompoundResult runAll() throws Exception {
+        Client client;
+        CompoundResult result;
+        boolean normal;
+
+        if (!bulk) {
+            return super.runAll();
+        }
+        normal = globals.getFail() == Fail.NORMAL;
+        client = globals.settings().currentContextConnect(globals.caller());
+        result = new CompoundResult();
+        client.publishAll(stageClause, dryrun, allow, directionsRefOpt, values, normal, (stage, diffOpt, errorOpt) -> {
+            Reference reference;
+
+            reference = new Reference(client, stage);
+            if (diffOpt == null) {
+                console.error.println(reference + ": " + errorOpt);
+                result.failure(reference, new IOException(errorOpt));
+            } else {
+                if (!diffOpt.isEmpty()) {
+                    for (String line : diffOpt.toString().split("\n")) {
+                        console.info.println("{" + reference + "} " + line);
+                    }
+                }
+                console.info.println("{" + reference + "} " + (dryrun ? "dryrun" : "done"));
+                result.success(reference);
+            }
+        });
+        if (normal && result.getMessage() != null) {
+            throw result;
+        }
+        return result;
+    }
+
     @Override
     public void doMain(Reference reference) throws Exception {
         Diff result;
@@ -34,6 +34,12 @@ public class Ssh extends IteratedStageCommand {
         this.shell = shell == null ? "/bin/sh" : shell;
     }
 
+    /** interactive */
+    @Override
+    protected boolean parallelizable() {
+        return false;
+    }
+
     @Override
     public void doMain(Reference reference) throws IOException, InterruptedException {
         PodConfig config;
@@ -44,9 +50,7 @@ public class Ssh extends IteratedStageCommand {
         try (Engine engine = Engine.create(globals.settings().local.json, config)) {
             listener = new StoolExecListener();
             try (ExecWatch watch = engine.podExecInteractive(config.pod, "main", new String[] { shell }, listener)) {
-                while (listener.closeReason == null) { // TODO: busy wait
-                    Thread.sleep(100);
-                }
+                listener.await();
                 console.verbose.println("closed, code=" + listener.closeCode + ", reason=" + listener.closeReason);
             }
         }
@@ -25,26 +25,24 @@ import java.util.Collection;
 import java.util.Map;
 
 public class Status extends InfoCommand {
-    private final boolean hidden;
-
     public Status(Globals globals, boolean hidden, String stage) {
-        super(globals, stage);
-        this.hidden = hidden;
+        super(globals, hidden, stage);
     }
 
     @Override
-    public void doRun(Client client, String clientFilter, CompoundResult result) throws Exception {
-        Map<String, Map<String, JsonNode>> response;
+    public void doRun(Client client, Map<String, Map<String, JsonNode>> response, CompoundResult result) throws Exception {
         boolean withPrefix;
         int prefixWidth;
         String prefix;
         String name;
 
-        response = client.list(clientFilter, selected, hidden);
-        withPrefix = response.size() != 1;
-        prefixWidth = maxWidth(response.keySet());
+        withPrefix = response.size() != 1 || multiContext();
+        prefixWidth = 0;
+        for (String stage : response.keySet()) {
+            prefixWidth = Math.max(prefixWidth, name(client, stage).length());
+        }
         for (Map.Entry<String, Map<String, JsonNode>> stage : response.entrySet()) {
-            name = stage.getKey();
+            name = name(client, stage.getKey());
             if (withPrefix) {
                 prefix = Strings.times(' ', prefixWidth - name.length());
                 prefix = prefix + "{" + name + "} ";
@@ -52,10 +50,15 @@ public class Status extends InfoCommand {
                 prefix = "";
             }
             output(prefix, stage.getValue());
-            result.success(new Reference(client, name));
+            result.success(new Reference(client, stage.getKey()));
         }
     }
 
+    /** with context, if stages from multiple contexts are listed */
+    private String name(Client client, String stage) {
+        return multiContext() ? new Reference(client, stage).toString() : stage;
+    }
+
     public void output(String prefix, Map<String, JsonNode> infos) {
         int width;
 
@@ -33,15 +33,12 @@ import net.oneandone.stool.util.Expire;
 import net.oneandone.stool.util.Json;
 import net.oneandone.stool.util.Pair;
 import net.oneandone.stool.util.Tar;
-import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
-import net.oneandone.sushi.util.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -228,11 +225,9 @@ public class Configuration {
         return result;
     }
 
-    public FileNode createValuesFile(ObjectMapper yaml, World world, Map<String, String> actuals, String workingTarOpt)
-            throws IOException {
+    public ObjectNode createValues(ObjectMapper yaml, Map<String, String> actuals, String workingTarOpt) {
         ObjectNode dest;
         Expire expire;
-        FileNode file;
         String str;
 
         dest = yaml.createObjectNode();
@@ -254,9 +249,7 @@ public class Configuration {
             }
             dest.put(Dependencies.VALUE_EXPIRE, expire.toString());
         }
-
-        file = world.getTemp().createTempFile().writeString(dest.toPrettyString());
-        return file;
+        return dest;
     }
 
     public Map<String, Variable> loadVariables(ObjectNode helmObject) {
@@ -277,6 +270,12 @@ public class Configuration {
     //--
 
     public Map<String, String> eval(Chartkit chartkit, String stage, String fqdn, Map<String, String> prev, Executor executor) throws IOException {
+        return eval(chartkit, stage, fqdn, prev, executor, 1);
+    }
+
+    /** @param parallelism number of directions evaluated concurrently */
+    public Map<String, String> eval(Chartkit chartkit, String stage, String fqdn, Map<String, String> prev, Executor executor,
+                                    int parallelism) throws IOException {
         Freemarker freemarker;
         Map<String, Direction> execMap;
 
@@ -285,8 +284,8 @@ public class Configuration {
         for (String name: names()) {
             execMap.put(name, exprLayer(name).get(name));
         }
-        freemarker = chartkit.freemarker(stage, fqdn);
-        return freemarker.eval(prev, execMap.values(), Script.scanOpt(chartkit.scripts), executor);
+        freemarker = chartkit.freemarker(stage, fqdn, parallelism);
+        return freemarker.eval(prev, execMap.values(), Script.scanOpt(chartkit.scripts, chartkit.scriptCache), executor);
     }
 
     private void verify() {
@@ -317,40 +316,49 @@ public class Configuration {
         return result;
     }
 
-    public Diff helm(Engine engine, String kubeContext, LocalSettings localSettings, String name, boolean upgrade, boolean dryrun, List<String> allowOpt,
-                     Map<String, String> prev, String prevWorking) throws IOException {
+    /** what a helm run did */
+    public static class Result {
+        public final Diff diff;
+        /** null for dry runs */
+        public final ObjectNode releaseOpt;
+
+        public Result(Diff diff, ObjectNode releaseOpt) {
+            this.diff = diff;
+            this.releaseOpt = releaseOpt;
+        }
+    }
+
+    public Result helm(Engine engine, String kubeContext, LocalSettings localSettings, String name, boolean upgrade, boolean dryrun, List<String> allowOpt,
+                       Map<String, String> prev, String prevWorking) throws IOException {
         Chartkit chartkit;
-        FileNode valuesFile;
-        Map<String, String> values;
-        Diff result;
+        String values;
+        Map<String, String> map;
+        Diff diff;
         Diff forbidden;
         FileNode working;
 
         chartkit = localSettings.chartkit();
         LOGGER.info("chart: " + chartString());
         working = Tar.toDir(localSettings.world, prevWorking);
-        try (Executor executor = chartkit.createExecutor(engine, working)) {
-            values = eval(chartkit, name, localSettings.fqdn,  prev, executor);
+        try (Executor executor = chartkit.createExecutor(engine, working, localSettings.podPoolOpt())) {
+            map = eval(chartkit, name, localSettings.fqdn,  prev, executor, localSettings.directionsParallelism);
         }
-        result = Diff.diff(prev, values);
+        diff = Diff.diff(prev, map);
         if (allowOpt != null) {
-            forbidden = result.withoutKeys(allowOpt);
+            forbidden = diff.withoutKeys(allowOpt);
             if (!forbidden.isEmpty()) {
                 throw new IOException("change is forbidden:\n" + forbidden);
             }
         }
-        removePrivate(result);
-        valuesFile = createValuesFile(localSettings.yaml, localSettings.world, values, Tar.fromDirOpt(working));
+        removePrivate(diff);
+        values = createValues(localSettings.yaml, map, Tar.fromDirOpt(working)).toPrettyString();
         working.deleteTree();
-        try {
-            LOGGER.info("values: " + valuesFile.readString());
-            helm(dryrun, kubeContext,
-                    localSettings.home, upgrade ? "upgrade" : "install", "--debug", "--values", valuesFile.getAbsolute(), name,
-                    chartkit.chart(chart.chartOpt).reference);
-            return result;
-        } finally {
-            valuesFile.deleteFile();
+        LOGGER.info("values: " + values);
+        if (dryrun) {
+            LOGGER.info("dryrun - skipped");
+            return new Result(diff, null);
         }
+        return new Result(diff, localSettings.helm(kubeContext).deploy(upgrade, name, chartkit.chart(chart.chartOpt).reference, values));
     }
 
     private void removePrivate(Diff result) {
@@ -360,23 +368,4 @@ public class Configuration {
             }
         }
     }
-
-    //--
-
-    public static void helm(boolean dryrun, String kubeContext, FileNode dir, String... args) throws IOException {
-        String[] cmd;
-
-        if (kubeContext != null) {
-            cmd = Strings.cons("--kube-context", Strings.cons(kubeContext, args));
-        } else {
-            cmd = args;
-        }
-        cmd = Strings.cons("helm", cmd);
-        LOGGER.debug(Arrays.asList(cmd).toString());
-        if (dryrun) {
-            LOGGER.info("dryrun - skipped");
-        } else {
-            LOGGER.info(dir.exec(cmd));
-        }
-    }
 }
@@ -17,12 +17,11 @@ package net.oneandone.stool.core;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import net.oneandone.stool.kubernetes.Engine;
 import net.oneandone.stool.util.Json;
 
 import java.io.IOException;
 
-/** A computable value representing one aspect of the stage status. */
+/** A computable value representing one aspect of the stage status. Independent of a particular stage, i.e. instances are shared. */
 public abstract class Field {
     public final boolean hidden;
     private final String name;
@@ -44,9 +43,9 @@ public abstract class Field {
         return name;
     }
 
-    public abstract Object get(Engine engine) throws IOException;
+    public abstract Object get(Stage stage, FieldContext context) throws IOException;
 
-    public JsonNode getAsJson(ObjectMapper json, Engine engine) throws IOException {
-        return Json.valueToJson(json, get(engine));
+    public JsonNode getAsJson(ObjectMapper json, Stage stage, FieldContext context) throws IOException {
+        return Json.valueToJson(json, get(stage, context));
     }
 }
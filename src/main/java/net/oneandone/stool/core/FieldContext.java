@@ -0,0 +1,99 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.core;
+
+import net.oneandone.stool.kubernetes.DeploymentInfo;
+import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.kubernetes.PodInfo;
+import net.oneandone.stool.kubernetes.Stats;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the namespace to evaluate fields of many stages: deployments, pods and pod metrics are each fetched
+ * at most once - lazily, on first use. Thus, evaluating fields for all stages costs a constant number of api calls.
+ * Create one per request.
+ */
+public class FieldContext {
+    private final Engine engine;
+    private Map<String, DeploymentInfo> lazyDeployments;
+    private Map<String, PodInfo> lazyPods;
+    private Map<String, Stats> lazyStats;
+
+    public FieldContext(Engine engine) {
+        this(engine, null, null);
+    }
+
+    /** @param deploymentsOpt, podsOpt known state, e.g. from a cache; null to fetch them when needed */
+    public FieldContext(Engine engine, Map<String, DeploymentInfo> deploymentsOpt, Map<String, PodInfo> podsOpt) {
+        this.engine = engine;
+        this.lazyDeployments = deploymentsOpt;
+        this.lazyPods = podsOpt;
+        this.lazyStats = null;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public DeploymentInfo deployment(String name) throws IOException {
+        DeploymentInfo result;
+
+        result = deployments().get(name);
+        if (result == null) {
+            throw new FileNotFoundException("deployment/" + name);
+        }
+        return result;
+    }
+
+    /** @return pods that have all labels of the selector */
+    public Map<String, PodInfo> pods(Map<String, String> selector) throws IOException {
+        Map<String, PodInfo> result;
+
+        result = new LinkedHashMap<>();
+        for (PodInfo pod : pods().values()) {
+            if (pod.labels != null && pod.labels.entrySet().containsAll(selector.entrySet())) {
+                result.put(pod.name, pod);
+            }
+        }
+        return result;
+    }
+
+    /** @return null if not available */
+    public synchronized Stats statsOpt(String pod) {
+        if (lazyStats == null) {
+            lazyStats = engine.statsList(Dependencies.MAIN_CONTAINER);
+        }
+        return lazyStats.get(pod);
+    }
+
+    private synchronized Map<String, DeploymentInfo> deployments() throws IOException {
+        if (lazyDeployments == null) {
+            lazyDeployments = engine.deploymentList();
+        }
+        return lazyDeployments;
+    }
+
+    private synchronized Map<String, PodInfo> pods() throws IOException {
+        if (lazyPods == null) {
+            lazyPods = engine.podList();
+        }
+        return lazyPods;
+    }
+}
@@ -20,9 +20,17 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.Main;
 import net.oneandone.stool.directions.Chartkit;
+import net.oneandone.stool.directions.ChartkitCache;
+import net.oneandone.stool.directions.DirectionsCache;
+import net.oneandone.stool.directions.PodPool;
 import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.kubernetes.HelmCli;
+import net.oneandone.stool.kubernetes.HelmRelease;
+import net.oneandone.stool.kubernetes.HelmSnapshot;
+import net.oneandone.stool.registry.ImageExtractor;
 import net.oneandone.stool.registry.PortusRegistry;
 import net.oneandone.stool.server.users.UserManager;
+import net.oneandone.stool.util.Futures;
 import net.oneandone.stool.util.Json;
 import net.oneandone.stool.util.Mailer;
 import net.oneandone.stool.util.Pair;
@@ -44,6 +52,10 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static net.oneandone.stool.util.Json.string;
 
@@ -94,6 +106,68 @@ public class LocalSettings extends CoreSettings {
      */
     public final String kubernetes;
 
+    /**
+     * Number of stages loaded concurrently when listing stages.
+     */
+    public final int loadParallelism;
+
+    /**
+     * Seconds between full resyncs of the server's stage cache; the cache is considered stale after three missed resyncs.
+     * 0 disables the cache.
+     */
+    public final int cacheResync;
+
+    /**
+     * Number of directions evaluated concurrently, e.g. to run independent scripts in parallel.
+     */
+    public final int directionsParallelism;
+
+    /**
+     * Maximum number of idle chartkit pods kept per image and environment for reuse by subsequent helm runs.
+     * 0 disables the pool, every run starts and deletes its own pod.
+     */
+    public final int podPoolMax;
+
+    /**
+     * Number of idle chartkit pods per image and environment not subject to idle eviction.
+     */
+    public final int podPoolMin;
+
+    /**
+     * Seconds an idle chartkit pod is kept before it's deleted.
+     */
+    public final int podPoolIdle;
+
+    /**
+     * Number of image tag infos fetched concurrently from the registry.
+     */
+    public final int registryParallelism;
+
+    /**
+     * Seconds to wait for a single tag info from the registry; 0 to wait forever.
+     */
+    public final int registryTimeout;
+
+    /**
+     * Number of image directions kept in lib/directions, so unchanged images are not fetched and parsed again; 0 disables the cache.
+     */
+    public final int directionsCacheMax;
+
+    /**
+     * Number of stages published concurrently by a bulk publish.
+     */
+    public final int publishParallelism;
+
+    /**
+     * Max number of publishes a bulk publish starts per minute and cluster; 0 for no limit.
+     */
+    public final int publishRate;
+
+    /**
+     * Seconds to wait for the stages of a single context when listing multiple contexts; 0 to wait forever.
+     */
+    public final int contextTimeout;
+
     public LocalSettings(ObjectMapper yaml, ObjectMapper json, FileNode home, ObjectNode local) {
         super(yaml, json, home);
 
@@ -115,9 +189,33 @@ public class LocalSettings extends CoreSettings {
         this.mailPassword = Json.string(local, "mailPassword", "");
         this.autoRemove = Json.number(local, "autoRemove", DEFAULT_AUTOREMOVE);
         this.kubernetes = Json.string(local, "kubernetes", DEFAULT_KUBERNETES);
+        this.loadParallelism = Json.number(local, "loadParallelism", DEFAULT_LOAD_PARALLELISM);
+        this.cacheResync = Json.number(local, "cacheResync", DEFAULT_CACHE_RESYNC);
+        this.directionsParallelism = Json.number(local, "directionsParallelism", DEFAULT_DIRECTIONS_PARALLELISM);
+        this.podPoolMax = Json.number(local, "podPoolMax", DEFAULT_POD_POOL_MAX);
+        this.podPoolMin = Json.number(local, "podPoolMin", DEFAULT_POD_POOL_MIN);
+        this.podPoolIdle = Json.number(local, "podPoolIdle", DEFAULT_POD_POOL_IDLE);
+        this.registryParallelism = Json.number(local, "registryParallelism", DEFAULT_REGISTRY_PARALLELISM);
+        this.registryTimeout = Json.number(local, "registryTimeout", DEFAULT_REGISTRY_TIMEOUT);
+        this.directionsCacheMax = Json.number(local, "directionsCacheMax", DEFAULT_DIRECTIONS_CACHE_MAX);
+        this.publishParallelism = Json.number(local, "publishParallelism", DEFAULT_PUBLISH_PARALLELISM);
+        this.publishRate = Json.number(local, "publishRate", DEFAULT_PUBLISH_RATE);
+        this.contextTimeout = Json.number(local, "contextTimeout", DEFAULT_CONTEXT_TIMEOUT);
     }
 
     private static final int DEFAULT_AUTOREMOVE = -1;
+    private static final int DEFAULT_LOAD_PARALLELISM = 10;
+    private static final int DEFAULT_CACHE_RESYNC = 60;
+    private static final int DEFAULT_DIRECTIONS_PARALLELISM = 4;
+    private static final int DEFAULT_POD_POOL_MAX = 0;
+    private static final int DEFAULT_POD_POOL_MIN = 0;
+    private static final int DEFAULT_POD_POOL_IDLE = 300;
+    private static final int DEFAULT_REGISTRY_PARALLELISM = 8;
+    private static final int DEFAULT_REGISTRY_TIMEOUT = 60;
+    private static final int DEFAULT_DIRECTIONS_CACHE_MAX = 1000;
+    private static final int DEFAULT_PUBLISH_PARALLELISM = 4;
+    private static final int DEFAULT_PUBLISH_RATE = 0;
+    private static final int DEFAULT_CONTEXT_TIMEOUT = 30;
     private static final String DEFAULT_KUBERNETES = "http://localhost";
     private static final String DEFAULT_STAGELOGS = "logs";
 
@@ -141,6 +239,18 @@ public class LocalSettings extends CoreSettings {
         this.mailPassword = from.mailPassword;
         this.autoRemove = from.autoRemove;
         this.kubernetes = from.kubernetes;
+        this.loadParallelism = from.loadParallelism;
+        this.cacheResync = from.cacheResync;
+        this.directionsParallelism = from.directionsParallelism;
+        this.podPoolMax = from.podPoolMax;
+        this.podPoolMin = from.podPoolMin;
+        this.podPoolIdle = from.podPoolIdle;
+        this.registryParallelism = from.registryParallelism;
+        this.registryTimeout = from.registryTimeout;
+        this.directionsCacheMax = from.directionsCacheMax;
+        this.publishParallelism = from.publishParallelism;
+        this.publishRate = from.publishRate;
+        this.contextTimeout = from.contextTimeout;
     }
 
     public static Map<String, Pair> parseRegistryCredentials(String str) {
@@ -256,9 +366,60 @@ public class LocalSettings extends CoreSettings {
         if (!DEFAULT_KUBERNETES.equals(kubernetes)) {
             local.put("kubernetes", kubernetes);
         }
+        if (loadParallelism != DEFAULT_LOAD_PARALLELISM) {
+            local.put("loadParallelism", loadParallelism);
+        }
+        if (cacheResync != DEFAULT_CACHE_RESYNC) {
+            local.put("cacheResync", cacheResync);
+        }
+        if (directionsParallelism != DEFAULT_DIRECTIONS_PARALLELISM) {
+            local.put("directionsParallelism", directionsParallelism);
+        }
+        if (podPoolMax != DEFAULT_POD_POOL_MAX) {
+            local.put("podPoolMax", podPoolMax);
+        }
+        if (podPoolMin != DEFAULT_POD_POOL_MIN) {
+            local.put("podPoolMin", podPoolMin);
+        }
+        if (podPoolIdle != DEFAULT_POD_POOL_IDLE) {
+            local.put("podPoolIdle", podPoolIdle);
+        }
+        if (registryParallelism != DEFAULT_REGISTRY_PARALLELISM) {
+            local.put("registryParallelism", registryParallelism);
+        }
+        if (registryTimeout != DEFAULT_REGISTRY_TIMEOUT) {
+            local.put("registryTimeout", registryTimeout);
+        }
+        if (directionsCacheMax != DEFAULT_DIRECTIONS_CACHE_MAX) {
+            local.put("directionsCacheMax", directionsCacheMax);
+        }
+        if (publishParallelism != DEFAULT_PUBLISH_PARALLELISM) {
+            local.put("publishParallelism", publishParallelism);
+        }
+        if (publishRate != DEFAULT_PUBLISH_RATE) {
+            local.put("publishRate", publishRate);
+        }
+        if (contextTimeout != DEFAULT_CONTEXT_TIMEOUT) {
+            local.put("contextTimeout", contextTimeout);
+        }
         return local;
     }
 
+    /** @param kubeContext null for the cluster the server runs in */
+    public HelmCli helm(String kubeContext) {
+        return new HelmCli(json, home, kubeContext);
+    }
+
+    /** @return null if disabled */
+    public DirectionsCache directionsCacheOpt() {
+        return directionsCacheMax == 0 ? null : DirectionsCache.get(getLib().join("directions"), directionsCacheMax);
+    }
+
+    /** @return null if disabled */
+    public PodPool podPoolOpt() {
+        return PodPool.getOpt(podPoolMin, podPoolMax, podPoolIdle);
+    }
+
     public PortusRegistry createRegistry(String image) throws IOException {
         int idx;
         String host;
@@ -289,62 +450,146 @@ public class LocalSettings extends CoreSettings {
 
     public static final String BUILTIN_CHARTKIT = "stool";
 
+    /** Builtin and image chartkits are shared process-wide, a local checkout is loaded for every settings instance */
     public Chartkit chartkit() throws IOException {
-        FileNode directory;
-        String version;
-        String image;
-
         if (lazyChartkit == null) {
-            if (BUILTIN_CHARTKIT.equals(chartkit)) {
-                directory = getLib().join("chartkit").mkdirsOpt();
-                version = Main.versionString(world);
-                world.resource("chartkit").copyDirectory(directory);
-                image = null;
-            } else if (chartkit.startsWith("/")) {
-                directory = world.file(chartkit).checkDirectory();
-                version = "unknown";
-                image = null;
+            if (chartkit.startsWith("/")) {
+                lazyChartkit = Chartkit.load(yaml, world.file(chartkit).checkDirectory(), "unknown", null);
             } else {
-                directory = getLib().join("chartkit");
-                try (Engine engine = Engine.createClusterOrLocal(json, null /* TODO */)) {
-                    version = Chartkit.resolve(createRegistry(chartkit), engine, chartkit, directory);
-                }
-                image = chartkit + ":" + version;
+                lazyChartkit = ChartkitCache.INSTANCE.get(chartkitCacheKey(), chartkitLoader());
             }
-            lazyChartkit = Chartkit.load(yaml, directory, version, image);
-            lazyChartkit.overrideEnvironment(environment);
+            lazyChartkit = lazyChartkit.withEnvironment(environment);
         }
         return lazyChartkit;
     }
 
+    /** next chartkit() call picks up the current chartkit; releases the chartkit used so far */
+    public void chartkitReset() {
+        if (lazyChartkit != null && !chartkit.startsWith("/")) {
+            ChartkitCache.INSTANCE.release(chartkitCacheKey(), lazyChartkit.getVersion());
+        }
+        lazyChartkit = null;
+    }
+
+    /**
+     * Fetches and loads a new chartkit version if available; subsequent settings instances will use it.
+     * @return true if a new version was loaded
+     */
+    public boolean chartkitRefresh() throws IOException {
+        if (chartkit.startsWith("/")) {
+            return false;
+        }
+        return ChartkitCache.INSTANCE.refresh(chartkitCacheKey(), chartkitLoader());
+    }
+
+    private String chartkitCacheKey() {
+        return chartkit + "@" + getLib().getAbsolute();
+    }
+
+    private ChartkitCache.Loader chartkitLoader() {
+        FileNode directory;
+        FileNode versions;
+
+        if (BUILTIN_CHARTKIT.equals(chartkit)) {
+            directory = getLib().join("chartkit");
+            return new ChartkitCache.Loader() {
+                @Override
+                public String resolve() throws IOException {
+                    return Main.versionString(world);
+                }
+
+                @Override
+                public Chartkit load(String version) throws IOException {
+                    directory.mkdirsOpt();
+                    world.resource("chartkit").copyDirectory(directory);
+                    return Chartkit.load(yaml, directory, version, null);
+                }
+
+                @Override
+                public void prune(Set<String> used) {
+                    // nothing to prune, there's only one directory
+                }
+            };
+        } else {
+            versions = getLib().join("chartkits");
+            return new ChartkitCache.Loader() {
+                @Override
+                public String resolve() throws IOException {
+                    PortusRegistry registry;
+                    String tag;
+
+                    registry = createRegistry(chartkit);
+                    tag = Chartkit.latest(registry, chartkit);
+                    if (!versions.join(tag).exists()) {
+                        Chartkit.download(new ImageExtractor(registry, getLib().join("layers")), chartkit, tag, versions);
+                    }
+                    return tag;
+                }
+
+                @Override
+                public Chartkit load(String version) throws IOException {
+                    return Chartkit.load(yaml, versions.join(version).checkDirectory(), version, chartkit + ":" + version);
+                }
+
+                @Override
+                public void prune(Set<String> used) throws IOException {
+                    Chartkit.prune(versions, used);
+                }
+            };
+        }
+    }
+
     //-- Stage access
 
 
+    /**
+     * Loads stages from a helm snapshot restricted by the query plan for the predicate, decoding releases concurrently;
+     * result is in helm list order; failures are reported in problems, not in the result
+     */
     public List<Stage> list(Engine engine, Predicate predicate, Map<String, IOException> problems) throws IOException {
+        QueryPlan plan;
+        HelmSnapshot snapshot;
+        List<String> names;
+        List<Future<Stage>> futures;
+        ExecutorService executor;
+        long started;
         List<Stage> result;
+        String name;
         Stage stage;
 
-        result = new ArrayList<>();
-        for (String name : list(engine)) {
-            try {
-                stage = load(engine, name);
-            } catch (IOException e) {
-                e.printStackTrace();
-                problems.put(name, e);
-                continue;
+        started = System.currentTimeMillis();
+        plan = QueryPlan.create(predicate);
+        snapshot = plan.fetch(engine);
+        names = new ArrayList<>();
+        for (HelmRelease release : snapshot.releases()) {
+            if (!"stool".equals(release.name) /* optional, stool server is not required */ && plan.mayMatch(release)) {
+                names.add(release.name);
             }
-            if (predicate.matches(stage)) {
-                result.add(stage);
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(loadParallelism, names.size())));
+        try {
+            futures = new ArrayList<>(names.size());
+            for (String n : names) {
+                futures.add(executor.submit(Futures.withMdc(() -> load(snapshot.lookup(n)))));
             }
+            result = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                name = names.get(i);
+                try {
+                    stage = Futures.await(name, futures.get(i), 0);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    problems.put(name, e);
+                    continue;
+                }
+                if (predicate.matches(stage)) {
+                    result.add(stage);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
         }
-        return result;
-    }
-
-    private static List<String> list(Engine engine) throws IOException {
-        List<String> result;
-
-        result = engine.helmList();
-        result.remove("stool"); // optional, stool server is not required
+        LOGGER.info("loaded " + names.size() + " of " + snapshot.size() + " stage(s) in " + (System.currentTimeMillis() - started) + " ms, " + plan);
         return result;
     }
 
@@ -366,16 +611,28 @@ public class LocalSettings extends CoreSettings {
     }
 
     public Stage load(Engine engine, String name) throws IOException {
-        String secretName;
-        ObjectNode obj;
+        HelmRelease release;
 
-        secretName = engine.helmSecretName(name);
         try {
-            obj = engine.helmSecretRead(secretName);
+            release = engine.helmRelease(name);
         } catch (FileNotFoundException e) {
             throw new StageNotFoundException(name);
         }
-        return Stage.create(this, name, obj, Stage.historyFromMap(engine.secretGetAnnotations(secretName)));
+        return load(release);
+    }
+
+    /** to evaluate fields of the stages returned by list */
+    public FieldContext fieldContext(Engine engine) {
+        return new FieldContext(engine);
+    }
+
+    /** for read-only access: the result might be shared and slightly out of date; defaults to load */
+    public Stage lookup(Engine engine, String name) throws IOException {
+        return load(engine, name);
+    }
+
+    private Stage load(HelmRelease release) throws IOException {
+        return Stage.create(this, release.name, release.read(), Stage.historyFromMap(release.annotations));
     }
 
     //--
@@ -16,7 +16,22 @@
 package net.oneandone.stool.core;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 public abstract class Predicate {
     public abstract boolean matches(Stage stage) throws IOException;
+
+    /** @return labels every matching release secret has, used as server-side selector; empty if unknown */
+    public Map<String, String> selector() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Evaluates this predicate on the labels of a release secret, i.e. without decoding the release.
+     * @return null if the labels are not sufficient to decide
+     */
+    public Boolean matchesLabels(Map<String, String> labels) {
+        return null;
+    }
 }
@@ -16,12 +16,16 @@
 package net.oneandone.stool.core;
 
 import net.oneandone.stool.directions.Variable;
-import net.oneandone.stool.kubernetes.Engine;
 import net.oneandone.sushi.util.Separator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/** Compiles filter expressions into a tree of predicates; parsing happens once, evaluation per stage. */
 public class PredicateParser {
     public static class PredicateException extends IOException {
         public PredicateException(String s) {
@@ -29,14 +33,14 @@ public class PredicateParser {
         }
     }
 
-    private final Engine engine;
+    private final FieldContext context;
 
-    public PredicateParser(Engine engine) {
-        this.engine = engine;
+    public PredicateParser(FieldContext context) {
+        this.context = context;
     }
 
     public Predicate parse(String filter) {
-        List<String> args;
+        List<Predicate> or;
 
         if (filter.isEmpty()) {
             return new Predicate() {
@@ -45,69 +49,38 @@ public class PredicateParser {
                     return true;
                 }
             };
-        } else {
-            args = Separator.COMMA.split(filter);
-            return new Predicate() {
-                @Override
-                public boolean matches(Stage stage) throws IOException {
-                    Predicate op;
-
-                    for (String arg : args) {
-                        op = and(arg);
-                        if (op.matches(stage)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                }
-            };
         }
+        or = new ArrayList<>();
+        for (String arg : Separator.COMMA.split(filter)) {
+            or.add(and(arg));
+        }
+        return or.size() == 1 ? or.get(0) : new Or(or);
     }
 
     private static final Separator AND = Separator.on('+');
 
     private Predicate and(String string) {
-        List<String> args;
-
-        args = AND.split(string);
-        return new Predicate() {
-            @Override
-            public boolean matches(Stage stage) throws IOException {
-                Predicate op;
-
-                for (String arg : args) {
-                    op = compare(stage, arg);
-                    if (!op.matches(stage)) {
-                        return false;
-                    }
-                }
-                return true;
-            }
-        };
-    }
+        List<Predicate> and;
 
+        and = new ArrayList<>();
+        for (String arg : AND.split(string)) {
+            and.add(compare(arg));
+        }
+        return and.size() == 1 ? and.get(0) : new And(and);
+    }
 
-    private Predicate compare(Stage stage, final String string) {
+    private Predicate compare(String string) {
         int idx;
         String name;
-        final boolean eq;
-        Field field;
-        final Field constField;
+        boolean eq;
         String value;
-        String property;
-        final String constProperty;
-        final boolean suffix;
-        final boolean prefix;
-        final String constValue;
+        boolean prefix;
+        boolean suffix;
+        Match match;
 
         idx = string.indexOf('=');
         if (idx == -1) {
-            return new Predicate() {
-                @Override
-                public boolean matches(Stage stage) {
-                    return stage.getName().equalsIgnoreCase(string);
-                }
-            };
+            return new NameEquals(string);
         }
         if (idx > 0 && string.charAt(idx - 1) == '!') {
             eq = false;
@@ -116,14 +89,6 @@ public class PredicateParser {
             eq = true;
             name = string.substring(0, idx);
         }
-        field = stage.fieldOpt(name);
-        if (field != null) {
-            property = null;
-        } else {
-            property = name;
-        }
-        constField = field;
-        constProperty = property;
         value = string.substring(idx + 1);
         if (value.startsWith("*")) {
             prefix = false;
@@ -137,40 +102,220 @@ public class PredicateParser {
         } else {
             suffix = true;
         }
-        constValue = value;
-        return new Predicate() {
-            @Override
-            public boolean matches(Stage stage) throws IOException {
-                boolean result;
-                Object obj;
-                String str;
-                Variable v;
-
-                if (constField != null) {
-                    obj = field.get(engine);
-                } else {
-                    v = stage.variableOpt(constProperty);
-                    if (v == null) {
-                        throw new PredicateException("property or status field not found: " + constProperty);
-                    }
-                    obj = v.get();
+        if (prefix && suffix) {
+            match = Match.EQUALS;
+        } else if (prefix) {
+            match = Match.PREFIX;
+        } else if (suffix) {
+            match = Match.SUFFIX;
+        } else {
+            match = Match.CONTAINS;
+        }
+        return new Compare(context, Stage.fieldOpt(name), name, match, value, eq);
+    }
+
+    //-- compiled predicates
+
+    /** label helm puts on release secrets */
+    private static final String NAME_LABEL = "name";
+
+    private static class Or extends Predicate {
+        private final Predicate[] args;
+
+        Or(List<Predicate> args) {
+            this.args = args.toArray(new Predicate[0]);
+        }
+
+        @Override
+        public boolean matches(Stage stage) throws IOException {
+            for (Predicate arg : args) {
+                if (arg.matches(stage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean matchesLabels(Map<String, String> labels) {
+            Boolean result;
+            Boolean b;
+
+            result = Boolean.FALSE;
+            for (Predicate arg : args) {
+                b = arg.matchesLabels(labels);
+                if (b == null) {
+                    result = null;
+                } else if (b) {
+                    return Boolean.TRUE;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class And extends Predicate {
+        private final Predicate[] args;
+
+        And(List<Predicate> args) {
+            this.args = args.toArray(new Predicate[0]);
+        }
+
+        @Override
+        public boolean matches(Stage stage) throws IOException {
+            for (Predicate arg : args) {
+                if (!arg.matches(stage)) {
+                    return false;
                 }
-                if (obj == null) {
-                    str = "";
-                } else {
-                    str = obj.toString();
+            }
+            return true;
+        }
+
+        @Override
+        public Map<String, String> selector() {
+            Map<String, String> result;
+
+            result = new HashMap<>();
+            for (Predicate arg : args) {
+                result.putAll(arg.selector());
+            }
+            return result;
+        }
+
+        @Override
+        public Boolean matchesLabels(Map<String, String> labels) {
+            Boolean result;
+            Boolean b;
+
+            result = Boolean.TRUE;
+            for (Predicate arg : args) {
+                b = arg.matchesLabels(labels);
+                if (b == null) {
+                    result = null;
+                } else if (!b) {
+                    return Boolean.FALSE;
                 }
-                if (prefix && suffix) {
-                    result = constValue.equals(str);
-                } else if (prefix) {
-                    result = str.startsWith(constValue);
-                } else if (suffix) {
-                    result = str.endsWith(constValue);
-                } else {
-                    result = str.contains(constValue);
+            }
+            return result;
+        }
+    }
+
+    private static class NameEquals extends Predicate {
+        private final String name;
+
+        NameEquals(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean matches(Stage stage) {
+            return stage.getName().equalsIgnoreCase(name);
+        }
+
+        /** release names are lower case */
+        @Override
+        public Map<String, String> selector() {
+            return Collections.singletonMap(NAME_LABEL, name.toLowerCase());
+        }
+
+        @Override
+        public Boolean matchesLabels(Map<String, String> labels) {
+            return name.equalsIgnoreCase(labels.get(NAME_LABEL));
+        }
+    }
+
+    private enum Match {
+        EQUALS, PREFIX, SUFFIX, CONTAINS;
+
+        public boolean matches(String str, String value) {
+            switch (this) {
+                case EQUALS:
+                    return value.equals(str);
+                case PREFIX:
+                    return str.startsWith(value);
+                case SUFFIX:
+                    return str.endsWith(value);
+                case CONTAINS:
+                    return str.contains(value);
+                default:
+                    throw new IllegalStateException(toString());
+            }
+        }
+    }
+
+    private static class Compare extends Predicate {
+        private final FieldContext context;
+        /** null to compare a variable */
+        private final Field field;
+        private final String name;
+        private final Match match;
+        private final String value;
+        private final boolean eq;
+
+        @SuppressWarnings("checkstyle:ParameterNumber")
+        Compare(FieldContext context, Field field, String name, Match match, String value, boolean eq) {
+            this.context = context;
+            this.field = field;
+            this.name = name;
+            this.match = match;
+            this.value = value;
+            this.eq = eq;
+        }
+
+        @Override
+        public boolean matches(Stage stage) throws IOException {
+            Object obj;
+            Variable v;
+
+            if (field != null) {
+                obj = field.get(stage, context);
+            } else {
+                v = stage.variableOpt(name);
+                if (v == null) {
+                    throw new PredicateException("property or status field not found: " + name);
                 }
-                return result == eq;
+                obj = v.get();
+            }
+            return match.matches(obj == null ? "" : obj.toString(), value) == eq;
+        }
+
+        @Override
+        public Map<String, String> selector() {
+            String label;
+
+            label = label();
+            if (label == null || match != Match.EQUALS || !eq || !Stage.isLabelValue(value)) {
+                return Collections.emptyMap();
+            }
+            return Collections.singletonMap(label, value);
+        }
+
+        @Override
+        public Boolean matchesLabels(Map<String, String> labels) {
+            String label;
+            String str;
+
+            label = label();
+            if (label == null) {
+                return null;
+            }
+            if (field == null && !labels.containsKey(Stage.LABEL_MARKER)) {
+                return null; // legacy release, no labels stamped
             }
-        };
+            str = labels.get(label);
+            if (str == null) {
+                return null; // variable not defined or value not valid for a label
+            }
+            return match.matches(str, value) == eq;
+        }
+
+        /** @return null if this comparison cannot be decided by labels */
+        private String label() {
+            if (field != null) {
+                return "name".equals(field.name()) ? NAME_LABEL : null;
+            } else {
+                return Stage.LABELED_VARIABLES.contains(name) ? Stage.LABEL_PREFIX + name : null;
+            }
+        }
     }
 }
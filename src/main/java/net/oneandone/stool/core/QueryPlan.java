@@ -0,0 +1,84 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.core;
+
+import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.kubernetes.HelmRelease;
+import net.oneandone.stool.kubernetes.HelmSnapshot;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how to fetch the releases for a predicate: clauses on labels are pushed down as a server-side label selector,
+ * and fetched releases are pre-filtered by their labels before they are decoded. The predicate has to be evaluated on
+ * the resulting stages anyway.
+ */
+public class QueryPlan {
+    public static QueryPlan create(Predicate predicate) {
+        Map<String, String> selector;
+        Map<String, String> legacy;
+
+        selector = predicate.selector();
+        legacy = null;
+        for (String label : selector.keySet()) {
+            if (label.startsWith(Stage.LABEL_PREFIX)) {
+                // releases without stamped labels have to be fetched separately
+                legacy = new HashMap<>(selector);
+                legacy.keySet().removeIf(key -> key.startsWith(Stage.LABEL_PREFIX));
+                break;
+            }
+        }
+        return new QueryPlan(predicate, selector, legacy);
+    }
+
+    private final Predicate predicate;
+    private final Map<String, String> selector;
+    /** null if the selector does not depend on stamped labels */
+    private final Map<String, String> legacySelectorOpt;
+
+    private QueryPlan(Predicate predicate, Map<String, String> selector, Map<String, String> legacySelectorOpt) {
+        this.predicate = predicate;
+        this.selector = selector;
+        this.legacySelectorOpt = legacySelectorOpt;
+    }
+
+    public HelmSnapshot fetch(Engine engine) throws IOException {
+        HelmSnapshot result;
+
+        if (legacySelectorOpt == null) {
+            return engine.helmSnapshot(selector, null);
+        }
+        result = engine.helmSnapshot(selector, null);
+        for (HelmRelease release : engine.helmSnapshot(legacySelectorOpt, Stage.LABEL_MARKER).releases()) {
+            result.add(release);
+        }
+        return result;
+    }
+
+    /** @return false if the release labels prove that the predicate does not match */
+    public boolean mayMatch(HelmRelease release) {
+        Boolean result;
+
+        result = predicate.matchesLabels(release.labels);
+        return result == null || result;
+    }
+
+    public String toString() {
+        return "selector=" + selector + (legacySelectorOpt == null ? "" : ", legacy=" + legacySelectorOpt);
+    }
+}
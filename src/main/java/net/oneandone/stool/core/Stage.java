@@ -24,8 +24,10 @@ import net.oneandone.stool.directions.DirectionsRef;
 import net.oneandone.stool.kubernetes.Stats;
 import net.oneandone.stool.util.Expire;
 import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.kubernetes.HelmRelease;
 import net.oneandone.stool.kubernetes.PodInfo;
 import net.oneandone.stool.util.Diff;
+import net.oneandone.stool.util.Json;
 import net.oneandone.sushi.fs.MkdirException;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.util.Separator;
@@ -38,6 +40,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * A short-lived object, created for one request, discarded afterwards - caches results for performance.
@@ -50,20 +53,52 @@ public class Stage {
         Stage stage;
         Configuration configuration;
         Map<String, String> effectiveValues;
+        ObjectNode release;
 
         effectiveValues = new HashMap<>(localSettings.defaultConfig);
         effectiveValues.putAll(explicitValues);
         history = new ArrayList<>(1);
         history.add(HistoryEntry.create(caller));
         configuration = Configuration.create(localSettings.chartkit(), directionsRef.resolve(localSettings), effectiveValues);
-        configuration.helm(engine, kubeContext, localSettings, stageName, false, false, null, Collections.emptyMap(), null);
-        stage = Stage.create(localSettings, stageName, engine.helmRead(stageName), history);
-        stage.saveHistory(engine);
+        release = configuration.helm(engine, kubeContext, localSettings, stageName, false, false, null, Collections.emptyMap(), null).releaseOpt;
+        stage = Stage.create(localSettings, stageName, release.deepCopy(), history);
+        stage.saveHistory(engine, release);
         return stage;
     }
 
     private static final String HISTORY_PREFIX = "stool-";
 
+    //-- labels stamped onto the release secret; they allow to filter stages without fetching and decoding all releases
+
+    /** present on release secrets that have labels for all LABELED_VARIABLES with a valid label value */
+    public static final String LABEL_MARKER = "stool-labels";
+    public static final String LABEL_PREFIX = "stool-";
+    public static final List<String> LABELED_VARIABLES = List.of(Dependencies.VALUE_CONTACT, Dependencies.VALUE_EXPIRE, Dependencies.VALUE_REPLICAS);
+
+    private static final Pattern LABEL_VALUE = Pattern.compile("(([A-Za-z0-9][-A-Za-z0-9_.]*)?[A-Za-z0-9])?");
+
+    public static boolean isLabelValue(String str) {
+        return str.length() <= 63 && LABEL_VALUE.matcher(str).matches();
+    }
+
+    public static Map<String, String> labelsFromHelmObject(ObjectNode helmObject) {
+        Map<String, Object> values;
+        Map<String, String> result;
+        Object value;
+
+        values = Json.toStringMap((ObjectNode) helmObject.get("chart").get("values"), Collections.emptyList());
+        values.putAll(Json.toStringMap((ObjectNode) helmObject.get("config"), Collections.emptyList()));
+        result = new HashMap<>();
+        result.put(LABEL_MARKER, "1");
+        for (String variable : LABELED_VARIABLES) {
+            value = values.get(variable);
+            if (value != null && isLabelValue(value.toString())) {
+                result.put(LABEL_PREFIX + variable, value.toString());
+            }
+        }
+        return result;
+    }
+
     public static Map<String, String> historyToMap(List<HistoryEntry> history) {
         Map<String, String> map;
 
@@ -191,49 +226,62 @@ public class Stage {
 
     //-- fields
 
-    public Field fieldOpt(String str) {
-        for (Field f : fields()) {
-            if (str.equals(f.name())) {
-                return f;
-            }
+    /** fields are independent of a particular stage, so they're created once */
+    private static final List<Field> FIELDS = Collections.unmodifiableList(createFields());
+    private static final Map<String, Field> FIELD_MAP = createFieldMap(FIELDS);
+
+    public static Field fieldOpt(String str) {
+        return FIELD_MAP.get(str);
+    }
+
+    public static List<Field> fields() {
+        return FIELDS;
+    }
+
+    private static Map<String, Field> createFieldMap(List<Field> fields) {
+        Map<String, Field> result;
+
+        result = new HashMap<>();
+        for (Field field : fields) {
+            result.put(field.name(), field);
         }
-        return null;
+        return Collections.unmodifiableMap(result);
     }
 
-    public List<Field> fields() {
-        List<Field> fields;
+    private static List<Field> createFields() {
+        List<Field> result;
 
-        fields = new ArrayList<>();
-        fields.add(new Field("name") {
+        result = new ArrayList<>();
+        result.add(new Field("name") {
             @Override
-            public Object get(Engine engine) {
-                return name;
+            public Object get(Stage stage, FieldContext context) {
+                return stage.name;
             }
         });
-        fields.add(new Field("available") {
+        result.add(new Field("available") {
             @Override
-            public Object get(Engine engine) throws IOException {
-                return engine.deploymentProbe(Dependencies.deploymentName(name)).statusAvailable;
+            public Object get(Stage stage, FieldContext context) throws IOException {
+                return context.deployment(Dependencies.deploymentName(stage.name)).statusAvailable;
             }
         });
-        fields.add(new Field("last-deployed") {
+        result.add(new Field("last-deployed") {
             @Override
-            public Object get(Engine engine) {
-                return info.get("last_deployed").asText();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.info.get("last_deployed").asText();
             }
         });
-        fields.add(new Field("first-deployed") {
+        result.add(new Field("first-deployed") {
             @Override
-            public Object get(Engine engine) {
-                return info.get("first_deployed").asText();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.info.get("first_deployed").asText();
             }
         });
-        fields.add(new Field("cpu") {
+        result.add(new Field("cpu") {
             @Override
-            public Object get(Engine engine) throws IOException {
+            public Object get(Stage stage, FieldContext context) throws IOException {
                 Stats stats;
 
-                stats = statsOpt(engine);
+                stats = stage.statsOpt(context);
                 if (stats != null) {
                     return stats.cpu;
                 } else {
@@ -241,12 +289,12 @@ public class Stage {
                 }
             }
         });
-        fields.add(new Field("mem") {
+        result.add(new Field("mem") {
             @Override
-            public Object get(Engine engine) throws IOException {
+            public Object get(Stage stage, FieldContext context) throws IOException {
                 Stats stats;
 
-                stats = statsOpt(engine);
+                stats = stage.statsOpt(context);
                 if (stats != null) {
                     return stats.memory;
                 } else {
@@ -254,47 +302,47 @@ public class Stage {
                 }
             }
         });
-        fields.add(new Field("urls") {
+        result.add(new Field("urls") {
             @Override
-            public Object get(Engine engine) {
-                return Stage.this.urlMap();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.urlMap();
             }
         });
-        fields.add(new Field("chart") {
+        result.add(new Field("chart") {
             @Override
-            public Object get(Engine engine) {
-                return configuration.chartString();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.configuration.chartString();
             }
         });
-        fields.add(new Field("directions", true) {
+        result.add(new Field("directions", true) {
             @Override
-            public Object get(Engine engine) {
-                return configuration.toArray(localSettings.yaml).toPrettyString();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.configuration.toArray(stage.localSettings.yaml).toPrettyString();
             }
         });
-        fields.add(new Field("origin", true) {
+        result.add(new Field("origin", true) {
             @Override
-            public Object get(Engine engine) {
-                return configuration.origin();
+            public Object get(Stage stage, FieldContext context) {
+                return stage.configuration.origin();
             }
         });
-        return fields;
+        return result;
     }
 
-    private Stats statsOpt(Engine engine) throws IOException {
+    private Stats statsOpt(FieldContext context) throws IOException {
         Collection<PodInfo> running;
 
-        running = runningPods(engine).values();
+        running = context.pods(context.deployment(Dependencies.deploymentName(name)).selector).values();
         if (running.isEmpty()) {
             return null;
         }
-        return engine.statsOpt(running.iterator().next() /* TODO */.name, Dependencies.MAIN_CONTAINER);
+        return context.statsOpt(running.iterator().next() /* TODO */.name);
     }
 
     /** CAUTION: values are not updated, re-instantiate this stage if you need updated values. */
     public Diff publish(Caller caller, String kubeContext, Engine engine, boolean dryrun, String allow,
                         DirectionsRef directionsRefOpt, Map<String, String> overrides) throws IOException {
-        Diff diff;
+        Configuration.Result result;
         List<String> allowOpt;
         Configuration nextConfiguration;
 
@@ -302,10 +350,10 @@ public class Stage {
                 : configuration.withDirections(localSettings.chartkit(), directionsRefOpt.resolve(localSettings));
         nextConfiguration = nextConfiguration.withConfig(overrides);
         allowOpt = allow == null ? null : Separator.COMMA.split(allow);
-        diff = nextConfiguration.helm(engine, kubeContext, localSettings, name, true, dryrun, allowOpt, valuesMap(), workingTarOpt);
+        result = nextConfiguration.helm(engine, kubeContext, localSettings, name, true, dryrun, allowOpt, valuesMap(), workingTarOpt);
         history.add(HistoryEntry.create(caller));
-        saveHistory(engine);
-        return diff;
+        saveHistory(engine, result.releaseOpt);
+        return result.diff;
     }
 
     private Map<String, String> valuesMap() {
@@ -321,24 +369,45 @@ public class Stage {
     /** CAUTION: values are not updated, re-instantiate this stage if you need updated values. */
     public void setValues(Caller caller, String kubeContext, Engine engine, Map<String, String> changes) throws IOException {
         Configuration nextConfiguration;
+        ObjectNode release;
 
         nextConfiguration = configuration.withConfig(changes);
-        nextConfiguration.helm(engine, kubeContext, localSettings, name, true, false, null, valuesMap(), workingTarOpt);
+        release = nextConfiguration.helm(engine, kubeContext, localSettings, name, true, false, null, valuesMap(), workingTarOpt).releaseOpt;
         history.add(HistoryEntry.create(caller));
-        saveHistory(engine);
+        saveHistory(engine, release);
     }
 
-    private void saveHistory(Engine engine) throws IOException {
-        engine.secretAddAnnotations(engine.helmSecretName(name), historyToMap(history));
+    /**
+     * also stamps labels, computed from the release just deployed - not from this object, its values might be outdated
+     * @param releaseOpt release just deployed; null to read the currently deployed release
+     */
+    private void saveHistory(Engine engine, ObjectNode releaseOpt) throws IOException {
+        HelmRelease release;
+
+        if (releaseOpt == null) {
+            release = engine.helmRelease(name);
+            engine.secretAddMetadata(release.secretName, labelsFromHelmObject(release.read()), historyToMap(history));
+        } else {
+            engine.secretAddMetadata(HelmRelease.secretName(releaseOpt), labelsFromHelmObject(releaseOpt), historyToMap(history));
+        }
     }
 
     public void uninstall(String kubeContext, Engine engine) throws IOException {
-        Configuration.helm(false, kubeContext, localSettings.world.getWorking(), "uninstall", getName());
-        engine.deploymentAwaitGone(getName());
+        uninstall(kubeContext, engine, Engine.DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    /** @param timeoutSeconds for the deployment to vanish */
+    public void uninstall(String kubeContext, Engine engine, int timeoutSeconds) throws IOException {
+        localSettings.helm(kubeContext).uninstall(getName());
+        engine.deploymentAwaitGone(getName(), timeoutSeconds);
     }
 
     public void awaitAvailable(Engine engine) throws IOException {
-        engine.deploymentAwaitAvailable(Dependencies.deploymentName(name));
+        awaitAvailable(engine, Engine.DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    public void awaitAvailable(Engine engine, int timeoutSeconds) throws IOException {
+        engine.deploymentAwaitAvailable(Dependencies.deploymentName(name), timeoutSeconds);
     }
 
     //--
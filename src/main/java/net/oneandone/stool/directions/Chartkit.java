@@ -15,11 +15,13 @@
  */
 package net.oneandone.stool.directions;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.core.LocalSettings;
 import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.registry.ImageExtractor;
 import net.oneandone.stool.registry.PortusRegistry;
 import net.oneandone.stool.registry.Registry;
 import net.oneandone.stool.util.Json;
@@ -30,10 +32,18 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /** helmcharts, directions, scripts and environment to run scripts */
 public class Chartkit {
@@ -41,45 +51,74 @@ public class Chartkit {
 
     //--
 
-    /**
-     * Ensures that dest contains the latest chartkit from the repository
-     * @return version
-     */
-    public static synchronized String resolve(PortusRegistry registry, Engine engine, String repository, FileNode dest) throws IOException {
-        String name;
+    /** @return latest tag of the chartkit repository */
+    public static String latest(PortusRegistry registry, String repository) throws IOException {
         List<String> tags;
-        String tag;
-        String existing;
-        FileNode tagFile;
 
         if (repository.contains(":")) {
             throw new ArgumentException("invalid chartkit repository: " + repository);
         }
-        name = repository.substring(repository.lastIndexOf('/') + 1);
         tags = sortTags(registry.tags(Registry.getRepositoryPath(repository)));
         if (tags.isEmpty()) {
             throw new IOException("no tag for repository " + repository);
         }
-        tag = tags.get(tags.size() - 1);
-        tagFile = dest.join(".tag");
+        return tags.get(tags.size() - 1);
+    }
+
+    /** number of newest chartkit versions kept in the versions directory, even if unused by this process */
+    private static final int KEEP_VERSIONS = 2;
+
+    /**
+     * Makes sure the versions directory contains the specified chartkit version. Extracts into a temporary directory
+     * and renames it, so a version directory is either missing or complete.
+     *
+     * @return version directory
+     */
+    public static FileNode download(ImageExtractor extractor, String repository, String tag, FileNode versions) throws IOException {
+        FileNode dest;
+        FileNode tmp;
+
+        dest = versions.join(tag);
         if (dest.exists()) {
-            existing = tagFile.readString().trim();
-            if (!tag.equals(existing)) {
-                LOGGER.info("updating chartkit " + name + " " + existing + " -> " + tag);
-                dest.deleteTree();
+            return dest;
+        }
+        versions.mkdirsOpt();
+        LOGGER.info("loading chartkit " + repository + " " + tag);
+        tmp = versions.join(".tmp-" + UUID.randomUUID());
+        try {
+            extractor.extract(Registry.getRepositoryPath(repository), tag, "/usr/local/chartkit", tmp);
+            tmp.checkDirectory();
+            try {
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                LOGGER.info("chartkit " + tag + " was downloaded concurrently");
             }
-        } else {
-            LOGGER.info("loading chartkit " + name + " " + tag);
-        }
-        if (!dest.exists()) {
-            engine.imageDownload(repository + ":" + tag, "/usr/local/chartkit", dest);
-            dest.checkDirectory();
-            for (FileNode file : dest.join("scripts").find("*.sh")) {
-                file.setPermissions("rwxr-xr-x"); // TODO: lost somehow ...
+        } finally {
+            if (tmp.exists()) {
+                tmp.deleteTree();
             }
-            tagFile.writeString(tag);
         }
-        return tag;
+        return dest;
+    }
+
+    /** removes old versions, except for the used ones */
+    public static void prune(FileNode versions, Set<String> used) throws IOException {
+        List<String> names;
+
+        names = new ArrayList<>();
+        for (FileNode dir : versions.list()) {
+            if (!dir.getName().startsWith(".") && dir.join("chartkit.yaml").isFile()) {
+                names.add(dir.getName());
+            }
+        }
+        sortTags(names);
+        for (int i = 0; i < names.size() - KEEP_VERSIONS; i++) {
+            if (used.contains(names.get(i))) {
+                continue;
+            }
+            LOGGER.info("removing chartkit " + names.get(i));
+            versions.join(names.get(i)).deleteTree();
+        }
     }
 
     private static List<String> sortTags(List<String> lst) { // TODO: also used for taginfo sorting, that's still based on numbers
@@ -93,11 +132,11 @@ public class Chartkit {
         ObjectNode chartkit;
         Chartkit result;
 
-        result = new Chartkit(version, image, directory.join("scripts"));
         try (Reader src = directory.join("chartkit.yaml").newReader()) {
             chartkit = (ObjectNode) yaml.readTree(src);
         }
-        result.environment.putAll(Json.stringMapOpt(chartkit, "environment"));
+        result = new Chartkit(version, image, directory.join("scripts"),
+                Json.stringMapOpt(chartkit, "environment"), scriptCache(chartkit), new HashMap<>(), new HashMap<>());
         for (FileNode chart : directory.join("charts").list()) {
             result.addChart(yaml, chart);
         }
@@ -105,9 +144,38 @@ public class Chartkit {
         return result;
     }
 
+    private static Map<String, Integer> scriptCache(ObjectNode chartkit) {
+        Map<String, Integer> result;
+        JsonNode scripts;
+        Iterator<Map.Entry<String, JsonNode>> iter;
+        Map.Entry<String, JsonNode> entry;
+
+        result = new HashMap<>();
+        scripts = chartkit.get("scripts");
+        if (scripts != null) {
+            iter = scripts.fields();
+            while (iter.hasNext()) {
+                entry = iter.next();
+                if (!entry.getValue().isObject()) {
+                    throw new ArgumentException("script " + entry.getKey() + ": object expected, got " + entry.getValue());
+                }
+                result.put(entry.getKey(), Json.number((ObjectNode) entry.getValue(), "cache", 0));
+            }
+        }
+        return result;
+    }
+
     //--
 
+    /*
+     * Chartkits are immutable once loaded, so they're safe to share between threads and requests. Directions and charts
+     * are only added while loading.
+     */
+
     public final Map<String, String> environment;
+
+    /** maps script names to seconds their output is cached */
+    public final Map<String, Integer> scriptCache;
     private final Map<String, Directions> directions;
     private final Map<String, Chart> charts;
     private final String version;
@@ -115,38 +183,64 @@ public class Chartkit {
     public final FileNode scripts;
 
     public Chartkit(String version, String image, FileNode scripts) {
-        this.environment = new HashMap<>();
-        this.directions = new HashMap<>();
-        this.charts = new HashMap<>();
+        this(version, image, scripts, new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+    }
+
+    private Chartkit(String version, String image, FileNode scripts, Map<String, String> environment, Map<String, Integer> scriptCache,
+                     Map<String, Directions> directions, Map<String, Chart> charts) {
+        this.environment = Collections.unmodifiableMap(new HashMap<>(environment));
+        this.scriptCache = Collections.unmodifiableMap(new HashMap<>(scriptCache));
+        this.directions = directions;
+        this.charts = charts;
         this.version = version;
         this.image = image;
         this.scripts = scripts;
     }
 
-    public void overrideEnvironment(Map<String, String> overrides) {
+    public String getVersion() {
+        return version;
+    }
+
+    /** @return chartkit with the respective environment variables replaced; this chartkit if there's nothing to override */
+    public Chartkit withEnvironment(Map<String, String> overrides) {
+        Map<String, String> env;
         String key;
 
+        if (overrides.isEmpty()) {
+            return this;
+        }
+        env = new HashMap<>(environment);
         for (Map.Entry<String, String> entry : overrides.entrySet()) {
             key = entry.getKey();
-            if (environment.put(key, entry.getValue()) == null) {
+            if (env.put(key, entry.getValue()) == null) {
                 throw new ArgumentException("unknown environment variable: " + key);
             }
         }
+        return new Chartkit(version, image, scripts, env, scriptCache, directions, charts);
     }
 
     public Executor createExecutor(Engine engine, FileNode working) {
+        return createExecutor(engine, working, null);
+    }
+
+    /** @param poolOpt to reuse chartkit pods, null to start a new pod for every executor */
+    public Executor createExecutor(Engine engine, FileNode working, PodPool poolOpt) {
         return image == null ? new ProcessExecutor(environment, working)
-                : new PodExecutor(engine, image, environment, working);
+                : new PodExecutor(engine, image, Engine.DEFAULT_AWAIT_TIMEOUT, poolOpt, environment, working);
     }
 
 
     public Freemarker freemarker(String stage, String host) {
-        return new Freemarker(environment, stage, host);
+        return freemarker(stage, host, 1);
+    }
+
+    public Freemarker freemarker(String stage, String host, int parallelism) {
+        return new Freemarker(environment, stage, host, parallelism);
     }
 
     //--
 
-    public void loadAll(ObjectMapper yaml, List<FileNode> files) throws IOException {
+    void loadAll(ObjectMapper yaml, List<FileNode> files) throws IOException {
         for (FileNode file : files) {
             try (Reader src = file.newReader()) {
                 addDirections(Directions.load("builtin", DirectionsRef.BUILDIN, (ObjectNode) yaml.readTree(src)));
@@ -156,7 +250,7 @@ public class Chartkit {
 
     // directions
 
-    public void addDirections(Directions add) throws IOException {
+    void addDirections(Directions add) throws IOException {
         if (this.directions.put(add.subject, add) != null) {
             throw new IOException("duplicate directions: " + add.subject);
         }
@@ -188,7 +282,7 @@ public class Chartkit {
         return result;
     }
 
-    public void addChart(ObjectMapper yaml, FileNode directory) throws IOException {
+    void addChart(ObjectMapper yaml, FileNode directory) throws IOException {
         String chartName;
         Directions d;
 
@@ -197,7 +291,7 @@ public class Chartkit {
         addChart(new Chart(chartName, version, directory.getAbsolute(), d));
     }
 
-    public void addChart(Chart chart) throws IOException {
+    void addChart(Chart chart) throws IOException {
         if (charts.put(chart.name, chart) != null) {
             throw new IOException("duplicate chart: " + chart.name);
         }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of loaded chartkits, so requests do not query the registry and parse the chartkit again.
+ * The first request for a chartkit loads it, subsequent requests get the current version immediately. New versions
+ * are picked up by refresh, which the server invokes on a schedule; it fetches and loads the new version before
+ * swapping it in, so requests never wait for it. Requests lease the chartkit they get and release it when done; old
+ * versions are pruned only when neither current nor leased, so a refresh never removes files a request renders from.
+ */
+public class ChartkitCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChartkitCache.class);
+
+    public static final ChartkitCache INSTANCE = new ChartkitCache();
+
+    /** how to get a chartkit */
+    public interface Loader {
+        /** @return latest version, which is then ready to load */
+        String resolve() throws IOException;
+
+        Chartkit load(String version) throws IOException;
+
+        /** removes versions not in use, as far as they're no longer needed */
+        void prune(Set<String> used) throws IOException;
+    }
+
+    private static class Slot {
+        private volatile Chartkit chartkit;
+
+        /** maps versions to the number of requests using them; guarded by itself */
+        private final Map<String, Integer> leases = new HashMap<>();
+    }
+
+    /** maps chartkit names to the current chartkit */
+    private final Map<String, Slot> slots;
+
+    public ChartkitCache() {
+        this.slots = new ConcurrentHashMap<>();
+    }
+
+    public Chartkit get(String name, Loader loader) throws IOException {
+        Slot slot;
+        Chartkit result;
+
+        slot = slots.computeIfAbsent(name, k -> new Slot());
+        result = lease(slot);
+        if (result == null) {
+            synchronized (slot) {
+                if (slot.chartkit == null) {
+                    slot.chartkit = loader.load(loader.resolve());
+                    prune(slot, loader);
+                }
+            }
+            result = lease(slot);
+        }
+        return result;
+    }
+
+    /** Call when a request is done with the chartkit it got, so the version can be pruned once it's outdated */
+    public void release(String name, String version) {
+        Slot slot;
+
+        slot = slots.get(name);
+        if (slot != null) {
+            synchronized (slot.leases) {
+                slot.leases.computeIfPresent(version, (k, count) -> count == 1 ? null : count - 1);
+            }
+        }
+    }
+
+    /** @return number of requests using the specified version */
+    public int leases(String name, String version) {
+        Slot slot;
+
+        slot = slots.get(name);
+        if (slot == null) {
+            return 0;
+        }
+        synchronized (slot.leases) {
+            return slot.leases.getOrDefault(version, 0);
+        }
+    }
+
+    /** @return current chartkit, null if none is loaded yet */
+    private static Chartkit lease(Slot slot) {
+        Chartkit result;
+
+        synchronized (slot.leases) {
+            result = slot.chartkit;
+            if (result != null) {
+                slot.leases.merge(result.getVersion(), 1, Integer::sum);
+            }
+        }
+        return result;
+    }
+
+    /** keeps the current and all leased versions; other versions cannot be leased anymore, so the set stays valid */
+    private static void prune(Slot slot, Loader loader) throws IOException {
+        Set<String> used;
+
+        synchronized (slot.leases) {
+            used = new HashSet<>(slot.leases.keySet());
+            if (slot.chartkit != null) {
+                used.add(slot.chartkit.getVersion());
+            }
+        }
+        loader.prune(used);
+    }
+
+    /**
+     * Checks for a new version and swaps it in once it's loaded; concurrent requests keep using the current chartkit.
+     * Also prunes versions released since the last refresh.
+     * @return true if a new chartkit was swapped in
+     */
+    public boolean refresh(String name, Loader loader) throws IOException {
+        Slot slot;
+        String version;
+        Chartkit current;
+
+        slot = slots.computeIfAbsent(name, k -> new Slot());
+        synchronized (slot) {
+            version = loader.resolve();
+            current = slot.chartkit;
+            if (current != null && version.equals(current.getVersion())) {
+                prune(slot, loader);
+                return false;
+            }
+            LOGGER.info("chartkit " + name + ": " + (current == null ? "(none)" : current.getVersion()) + " -> " + version);
+            slot.chartkit = loader.load(version);
+            prune(slot, loader);
+            return true;
+        }
+    }
+}
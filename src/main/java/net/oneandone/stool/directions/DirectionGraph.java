@@ -0,0 +1,127 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.inline.ArgumentException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dependencies between directions, extracted from the direction.* references in their expressions. Used to detect cycles before
+ * evaluation and to evaluate independent directions concurrently. References computed at runtime are not detected,
+ * they're still resolved on demand.
+ */
+public class DirectionGraph {
+    private static final Pattern REFERENCE = Pattern.compile(
+            "\\bdirection\\s*(?:\\.\\s*([A-Za-z_$][A-Za-z0-9_$]*)|\\[\\s*['\"]([^'\"]+)['\"]\\s*\\])");
+
+    public static DirectionGraph create(Collection<Direction> directions) {
+        Map<String, Set<String>> dependencies;
+
+        dependencies = new LinkedHashMap<>();
+        for (Direction direction : directions) {
+            dependencies.put(direction.name, references(direction));
+        }
+        return new DirectionGraph(dependencies);
+    }
+
+    /** @return names of the directions referenced by the expression; may include unknown directions */
+    public static Set<String> references(Direction direction) {
+        Set<String> result;
+        Matcher matcher;
+
+        result = new LinkedHashSet<>();
+        if (direction.valueOpt() == null) {
+            matcher = REFERENCE.matcher(direction.expression);
+            while (matcher.find()) {
+                result.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            }
+        }
+        return result;
+    }
+
+    /** key is direction name, value is names of the directions it references */
+    private final Map<String, Set<String>> dependencies;
+
+    private DirectionGraph(Map<String, Set<String>> dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    public Set<String> dependencies(String name) {
+        return dependencies.get(name);
+    }
+
+    /**
+     * @return all directions, every direction after its dependencies; otherwise in the original order
+     * @throws ArgumentException if there's a cycle
+     */
+    public List<String> order() {
+        List<String> result;
+        Map<String, Boolean> done; // false while in progress
+
+        result = new ArrayList<>(dependencies.size());
+        done = new HashMap<>();
+        for (String name : dependencies.keySet()) {
+            visit(name, done, new ArrayList<>(), result);
+        }
+        return result;
+    }
+
+    private void visit(String name, Map<String, Boolean> done, List<String> path, List<String> result) {
+        Boolean state;
+        Set<String> deps;
+
+        deps = dependencies.get(name);
+        if (deps == null) {
+            return; // unknown direction, reported when evaluated
+        }
+        state = done.get(name);
+        if (state != null) {
+            if (!state) {
+                throw new ArgumentException(cycleMessage(name, path));
+            }
+            return;
+        }
+        done.put(name, false);
+        path.add(name);
+        for (String dep : deps) {
+            visit(dep, done, path, result);
+        }
+        path.remove(path.size() - 1);
+        done.put(name, true);
+        result.add(name);
+    }
+
+    private static String cycleMessage(String name, List<String> path) {
+        List<String> cycle;
+
+        cycle = new ArrayList<>(path.subList(path.indexOf(name), path.size()));
+        if (cycle.size() == 1) {
+            return "invalid recursion on direction " + name;
+        }
+        cycle.add(name);
+        return "invalid recursion on direction " + name + ": " + String.join(" -> ", cycle);
+    }
+}
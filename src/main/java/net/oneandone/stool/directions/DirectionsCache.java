@@ -0,0 +1,221 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.stool.util.Json;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed directions from image labels, keyed by manifest digest. A digest identifies the image content, so entries
+ * never become stale - a re-pushed tag simply gets a new digest. Entries are kept in memory and in a directory on disk;
+ * the least recently used ones are removed when exceeding the configured maximum.
+ */
+public class DirectionsCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectionsCache.class);
+
+    private static final Map<String, DirectionsCache> CACHES = new ConcurrentHashMap<>();
+
+    /** max number of entries kept in memory, in addition to the limit for the directory */
+    private static final int MEMORY = 200;
+
+    public static DirectionsCache get(FileNode dir, int max) {
+        return CACHES.computeIfAbsent(dir.getAbsolute(), k -> new DirectionsCache(dir, max));
+    }
+
+    public static class Entry {
+        public final String digest;
+        public final String image;
+        public final String author;
+        private final ObjectNode directions;
+
+        public Entry(String digest, String image, String author, ObjectNode directions) {
+            this.digest = digest;
+            this.image = image;
+            this.author = author;
+            this.directions = directions;
+        }
+
+        /** @return copy, loading directions modifies the object */
+        public ObjectNode directions() {
+            return directions.deepCopy();
+        }
+    }
+
+    private final ObjectMapper json;
+    private final FileNode dir;
+    private final int max;
+    private final Map<String, Entry> memory;
+    private long hits;
+    private long misses;
+
+    DirectionsCache(FileNode dir, int max) {
+        int memoryMax;
+
+        memoryMax = Math.min(max, MEMORY);
+        this.json = Json.newJson();
+        this.dir = dir;
+        this.max = max;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DirectionsCache.Entry> eldest) {
+                return size() > memoryMax;
+            }
+        };
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public synchronized Entry getOpt(String digest) throws IOException {
+        Entry result;
+        FileNode file;
+
+        file = file(digest);
+        result = memory.get(digest);
+        if (result == null && file.exists()) {
+            result = read(digest, file);
+            memory.put(digest, result);
+        }
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+        return result;
+    }
+
+    public synchronized Entry put(String digest, String image, String author, ObjectNode directions) throws IOException {
+        Entry result;
+        ObjectNode obj;
+        FileNode tmp;
+
+        result = new Entry(digest, image, author, directions.deepCopy());
+        memory.put(digest, result);
+        obj = json.createObjectNode();
+        obj.put("image", image);
+        obj.put("author", author);
+        obj.set("directions", directions);
+        dir.mkdirsOpt();
+        tmp = dir.join(".tmp-" + UUID.randomUUID());
+        try {
+            tmp.writeString(obj.toPrettyString());
+            Files.move(tmp.toPath(), file(digest).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tmp.exists()) {
+                tmp.deleteFile();
+            }
+        }
+        prune();
+        return result;
+    }
+
+    /** @return entries on disk, most recently used first */
+    public synchronized List<Entry> list() throws IOException {
+        List<Entry> result;
+
+        result = new ArrayList<>();
+        for (FileNode file : files()) {
+            result.add(read(digest(file), file));
+        }
+        return result;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    //--
+
+    private void prune() throws IOException {
+        List<FileNode> files;
+        FileNode file;
+
+        files = files();
+        for (int i = max; i < files.size(); i++) {
+            file = files.get(i);
+            LOGGER.info("removing directions cache entry " + file.getName());
+            memory.remove(digest(file));
+            file.deleteFile();
+        }
+    }
+
+    /** @return cache files, most recently used first */
+    private List<FileNode> files() throws IOException {
+        List<FileNode> result;
+
+        result = new ArrayList<>();
+        if (dir.isDirectory()) {
+            for (FileNode file : dir.list()) {
+                if (file.getName().endsWith(".json")) {
+                    result.add(file);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(DirectionsCache::lastModified).reversed());
+        return result;
+    }
+
+    private static long lastModified(FileNode file) {
+        try {
+            return file.getLastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Entry read(String digest, FileNode file) throws IOException {
+        ObjectNode obj;
+
+        obj = (ObjectNode) json.readTree(file.readString());
+        return new Entry(digest, obj.get("image").asText(), obj.get("author").isNull() ? null : obj.get("author").asText(),
+                (ObjectNode) obj.get("directions"));
+    }
+
+    private FileNode file(String digest) {
+        if (digest.contains("/")) {
+            throw new IllegalArgumentException(digest);
+        }
+        return dir.join(digest.replace(':', '-') + ".json");
+    }
+
+    private static String digest(FileNode file) {
+        String name;
+
+        name = file.getName();
+        return name.substring(0, name.length() - ".json".length()).replaceFirst("-", ":");
+    }
+}
@@ -17,6 +17,7 @@ package net.oneandone.stool.directions;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.core.LocalSettings;
 import net.oneandone.stool.registry.Registry;
 import net.oneandone.stool.registry.TagInfo;
@@ -96,7 +97,6 @@ public class DirectionsRef {
     public Directions resolve(LocalSettings localSettings) throws IOException {
         Chartkit chartkit;
         Directions result;
-        String str;
 
         chartkit = localSettings.chartkit();
         switch (type) {
@@ -113,22 +113,7 @@ public class DirectionsRef {
                 }
                 break;
             case IMAGE:
-                Registry registry;
-                TagInfo tag;
-
-                registry = localSettings.createRegistry(value);
-                tag = registry.resolve(value);
-                str = tag.labels.get(LABEL);
-                if (str == null || str.isEmpty()) {
-                    throw new IOException("image does not have a '" + LABEL + "' label: " + value);
-                }
-                try (Reader src = new StringReader(decode(str))) {
-                    try {
-                        result = Directions.load(origin, tag.author, object(localSettings.yaml.readTree(src)));
-                    } catch (IOException e) {
-                        throw new IOException(origin + ": failed to parse directions from image label: " + e.getMessage(), e);
-                    }
-                }
+                result = image(localSettings);
                 break;
             default:
                 throw new IllegalStateException(type.toString());
@@ -136,6 +121,58 @@ public class DirectionsRef {
         return result;
     }
 
+    /** checks the cache with the manifest digest first, so unchanged images are neither fetched nor parsed again */
+    private Directions image(LocalSettings localSettings) throws IOException {
+        Registry registry;
+        DirectionsCache cache;
+        String path;
+        String tag;
+        String digest;
+        DirectionsCache.Entry entry;
+        TagInfo info;
+
+        registry = localSettings.createRegistry(value);
+        cache = localSettings.directionsCacheOpt();
+        if (cache == null) {
+            info = registry.resolve(value);
+            return load(info.author, labelDirections(localSettings, info));
+        }
+        path = Registry.getRepositoryPath(Registry.toRepository(value));
+        tag = registry.resolveTag(value);
+        digest = registry.digestOpt(path, tag);
+        if (digest == null) {
+            throw new ArgumentException("image not found: " + value);
+        }
+        entry = cache.getOpt(digest);
+        if (entry == null) {
+            info = registry.info(path, tag);
+            entry = cache.put(digest, info.repositoryTag, info.author, labelDirections(localSettings, info));
+        }
+        return load(entry.author, entry.directions());
+    }
+
+    private ObjectNode labelDirections(LocalSettings localSettings, TagInfo tag) throws IOException {
+        String str;
+
+        str = tag.labels.get(LABEL);
+        if (str == null || str.isEmpty()) {
+            throw new IOException("image does not have a '" + LABEL + "' label: " + value);
+        }
+        try (Reader src = new StringReader(decode(str))) {
+            return object(localSettings.yaml.readTree(src));
+        } catch (IOException e) {
+            throw new IOException(origin + ": failed to parse directions from image label: " + e.getMessage(), e);
+        }
+    }
+
+    private Directions load(String author, ObjectNode directions) throws IOException {
+        try {
+            return Directions.load(origin, author, directions);
+        } catch (IOException e) {
+            throw new IOException(origin + ": failed to parse directions from image label: " + e.getMessage(), e);
+        }
+    }
+
     private static ObjectNode object(JsonNode raw) throws IOException {
         if (raw instanceof ObjectNode on) {
             return on;
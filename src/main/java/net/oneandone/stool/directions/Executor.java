@@ -15,11 +15,13 @@
  */
 package net.oneandone.stool.directions;
 
+import net.oneandone.stool.util.Tar;
 import net.oneandone.sushi.fs.file.FileNode;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Executes scripts. Chartkit is a factory for executors.
@@ -27,17 +29,82 @@ import java.util.Map;
  * Running scripts can use a storage directory the keeps files between invocations of the script.
  * This directory is managed per script. The first invocation starts with an empty persistent directory.
  * Storage is implemented by special values in the respective helm release.
+ *
+ * Executors are thread-safe: different scripts may run concurrently, invocations of the same script are serialized
+ * because they share the script's storage.
+ *
+ * Output of scripts declared with a cache is taken from the ScriptCache if possible, and the storage they left is replayed.
  */
 public abstract class Executor implements AutoCloseable {
     public final Map<String, String> environment;
     public final FileNode storageRoot;
+    private final Map<String, Object> scriptLocks;
 
     public Executor(Map<String, String> environment, FileNode storageRoot) {
         this.environment = environment;
         this.storageRoot = storageRoot;
+        this.scriptLocks = new ConcurrentHashMap<>();
     }
 
-    public abstract String exec(Script script, List<String> args) throws IOException;
+    public final String exec(Script script, List<String> args) throws IOException {
+        String key;
+        ScriptCache.Entry entry;
+        String result;
+        String storage;
+
+        synchronized (scriptLocks.computeIfAbsent(script.name, name -> new Object())) {
+            if (script.cacheSeconds <= 0) {
+                return doExec(script, args);
+            }
+            key = ScriptCache.key(script, args, environment, storageRoot);
+            entry = ScriptCache.INSTANCE.getOpt(key, System.currentTimeMillis());
+            if (entry != null) {
+                restoreStorage(script, entry.storageOpt);
+                return entry.output;
+            }
+            result = doExec(script, args);
+            storage = storageOpt(script);
+            ScriptCache.INSTANCE.put(key, result, storage, script.cacheSeconds, System.currentTimeMillis());
+            ScriptCache.INSTANCE.put(keyAfter(script, args, storage), result, storage, script.cacheSeconds, System.currentTimeMillis());
+            return result;
+        }
+    }
+
+    /** @return key for invoking the script again on the storage it left behind */
+    private String keyAfter(Script script, List<String> args, String storageOpt) throws IOException {
+        FileNode tmp;
+
+        tmp = storageRoot.getWorld().getTemp().createTempDirectory();
+        try {
+            if (storageOpt != null) {
+                Tar.extract(storageOpt, tmp.join(script.name).mkdir());
+            }
+            return ScriptCache.key(script, args, environment, tmp);
+        } finally {
+            tmp.deleteTree();
+        }
+    }
+
+    protected abstract String doExec(Script script, List<String> args) throws IOException;
+
+    /** @return base64-encoded tgz of the script's storage as the last run left it; null if there's none */
+    protected abstract String storageOpt(Script script) throws IOException;
+
+    /** replaces the script's storage; @param tarOpt as returned by storageOpt */
+    protected abstract void restoreStorage(Script script, String tarOpt) throws IOException;
+
+    /** replaces a script directory below storageRoot */
+    protected void restoreLocal(Script script, String tarOpt) throws IOException {
+        FileNode dir;
+
+        dir = storageRoot.join(script.name);
+        if (dir.exists()) {
+            dir.deleteTree();
+        }
+        if (tarOpt != null) {
+            Tar.extract(tarOpt, dir.mkdirs());
+        }
+    }
 
     public abstract void close() throws IOException;
 }
@@ -34,96 +34,207 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 public class Freemarker {
     public static final String STORAGE = "__storage__";
 
-    private final Configuration configuration;
+    /** shared by all instances; thread-safe because it's not modified after initialization */
+    private static final Configuration CONFIGURATION;
+
+    static {
+        CONFIGURATION = new Configuration(Configuration.VERSION_2_3_26);
+        CONFIGURATION.setDefaultEncoding("UTF-8");
+        CONFIGURATION.setLogTemplateExceptions(false);
+    }
+
+    private static final int TEMPLATE_CACHE_SIZE = 1000;
+
+    /**
+     * parsed templates by direction name and expression text - the name is part of the key because Freemarker reports
+     * error positions with the template name; least recently used entries are evicted. Templates are thread-safe
+     */
+    private static final Map<String, Template> TEMPLATES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+            return size() > TEMPLATE_CACHE_SIZE;
+        }
+    };
+
+    private static Template template(String name, String str) throws IOException {
+        String key;
+        Template result;
+
+        key = name + "\n" + str;
+        synchronized (TEMPLATES) {
+            result = TEMPLATES.get(key);
+        }
+        if (result == null) {
+            // parse outside the lock; concurrent parses of the same text are harmless
+            result = new Template(name, str, CONFIGURATION);
+            synchronized (TEMPLATES) {
+                TEMPLATES.put(key, result);
+            }
+        }
+        return result;
+    }
+
     private final Map<String, String> environment;
     private final String fqdn;
     private final String stage;
     private final String host;
 
-    /** key is direction name, value is
-     *   string with result when ready
-     *   Direction object when to do
-     *   null when eval of this key started
-     */
-    private Map<String, Object> context;
+    /** number of directions evaluated concurrently */
+    private final int parallelism;
+
+    /** key is direction name, value computes the direction value; a task is started at most once */
+    private Map<String, FutureTask<String>> context;
     private List<Script> contextScripts;
     private Executor contextExecutor;
     private Map<String, String> contextPrevious;
+    /** data model, built once per eval run */
+    private Map<String, Object> contextModel;
+    /** direction names to the thread computing them; guarded by itself, together with waiting */
+    private final Map<String, Thread> owners;
+    /** threads to the direction they wait for */
+    private final Map<Thread, String> waiting;
 
     public Freemarker(Map<String, String> environment, String stage, String host) {
-        this.configuration = new freemarker.template.Configuration(freemarker.template.Configuration.VERSION_2_3_26);
-        this.configuration.setDefaultEncoding("UTF-8");
-        this.configuration.setLogTemplateExceptions(false);
+        this(environment, stage, host, 1);
+    }
 
+    public Freemarker(Map<String, String> environment, String stage, String host, int parallelism) {
         this.environment = environment;
         this.fqdn = stage + "." + host;
         this.stage = stage;
         this.host = host;
+        this.parallelism = parallelism;
         this.context = null;
         this.contextScripts = null;
         this.contextExecutor = null;
         this.contextPrevious = null;
+        this.contextModel = null;
+        this.owners = new HashMap<>();
+        this.waiting = new HashMap<>();
     }
 
+    /**
+     * Evaluates directions in dependency order; independent directions are evaluated concurrently if parallelism is &gt; 1.
+     * Thus, executor has to be thread-safe.
+     */
     public Map<String, String> eval(Map<String, String> previous, Collection<Direction> directions,
                                     List<Script> scripts, Executor executor) {
+        List<String> order;
+        ExecutorService pool;
         Map<String, String> result;
 
         if (context != null) {
             throw new IllegalStateException();
         }
+        order = DirectionGraph.create(directions).order();
         context = new LinkedHashMap<>();
         contextScripts = scripts;
         contextExecutor = executor;
         contextPrevious = previous;
+        pool = null;
         try {
             for (Direction direction : directions) {
-                context.put(direction.name, direction);
+                context.put(direction.name, new FutureTask<>(() -> compute(direction)));
             }
-            for (Direction directon : directions) {
-                evalValue(directon.name);
+            contextModel = templateEnv();
+            if (parallelism > 1 && order.size() > 1) {
+                pool = Executors.newFixedThreadPool(Math.min(parallelism, order.size()));
+                for (String name : order) {
+                    pool.execute(context.get(name));
+                }
+            }
+            for (String name : order) {
+                evalValue(name);
             }
             result = new LinkedHashMap<>();
-            for (Map.Entry<String, Object> entry : context.entrySet()) {
-                result.put(entry.getKey(), (String) entry.getValue());
+            for (Direction direction : directions) {
+                result.put(direction.name, evalValue(direction.name));
             }
             return result;
         } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
             context = null;
             contextScripts = null;
             contextExecutor = null;
             contextPrevious = null;
+            contextModel = null;
         }
     }
 
-    private String evalValue(String name) {
-        Object obj;
+    private String compute(Direction direction) {
         String result;
 
-        if (!context.containsKey(name)) {
-            throw new ArgumentException("unknown direction: " + name);
-        }
-        obj = context.get(name);
-        if (obj == null) {
-            throw new ArgumentException("invalid recursion on direction " + name);
-        }
-        if (obj instanceof String s) {
-            return s;
+        synchronized (owners) {
+            owners.put(direction.name, Thread.currentThread());
         }
-        if (obj instanceof Direction direction) {
-            context.put(name, null); // start recursion
+        try {
             result = direction.valueOpt();
             if (result == null) {
                 result = eval(direction.name, "${" + direction.expression + "}");
             }
-            context.put(name, result);
             return result;
+        } finally {
+            synchronized (owners) {
+                owners.remove(direction.name);
+            }
+        }
+    }
+
+    /**
+     * Runs the direction in the current thread if it's not yet started; otherwise waits for it. Fails instead of
+     * waiting if that closes a cycle - directions referenced at runtime are not visible to DirectionGraph.
+     */
+    private String evalValue(String name) {
+        FutureTask<String> task;
+        Thread current;
+        Throwable cause;
+
+        task = context.get(name);
+        if (task == null) {
+            throw new ArgumentException("unknown direction: " + name);
+        }
+        task.run();
+        current = Thread.currentThread();
+        synchronized (owners) {
+            for (Thread t = owners.get(name); t != null; t = owners.get(waiting.get(t))) {
+                if (t == current) {
+                    throw new ArgumentException("invalid recursion on direction " + name);
+                }
+                if (!waiting.containsKey(t)) {
+                    break;
+                }
+            }
+            waiting.put(current, name);
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ArgumentException("interrupted while evaluating direction " + name, e);
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            } else if (cause instanceof Error error) {
+                throw error;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        } finally {
+            synchronized (owners) {
+                waiting.remove(current);
+            }
         }
-        throw new IllegalStateException(obj.getClass().toString());
     }
 
     public String eval(String str) {
@@ -134,9 +245,8 @@ public class Freemarker {
         StringWriter dest;
 
         try {
-            Template template = new Template(name, str, configuration);
             dest = new StringWriter();
-            template.process(templateEnv(), dest);
+            template(name, str).process(contextModel != null ? contextModel : templateEnv(), dest);
             dest.close();
             return dest.toString();
         } catch (IOException | TemplateException e) {
@@ -144,7 +254,7 @@ public class Freemarker {
         }
     }
 
-    private Map<String, Object> templateEnv() throws IOException {
+    private Map<String, Object> templateEnv() {
         Map<String, Object> result;
 
         result = new HashMap<>();
@@ -23,6 +23,7 @@ import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.util.Strings;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,22 +38,57 @@ public class PodExecutor extends Executor {
     public final Engine engine;
     public final String image;
 
+    /** seconds to wait for the pod to start */
+    public final int startTimeout;
+
+    /** null to start a new pod for every executor */
+    private final PodPool poolOpt;
+
     private String pod;
+    private PodPool.Entry entry;
+    private PodSync sync;
 
     public PodExecutor(Engine engine, String image, Map<String, String> environment, FileNode working) {
+        this(engine, image, Engine.DEFAULT_AWAIT_TIMEOUT, null, environment, working);
+    }
+
+    public PodExecutor(Engine engine, String image, int startTimeout, PodPool poolOpt, Map<String, String> environment, FileNode working) {
         super(environment, working);
         this.engine = engine;
         this.image = image;
+        this.startTimeout = startTimeout;
+        this.poolOpt = poolOpt;
         this.pod = null;
+        this.entry = null;
+        this.sync = null;
     }
 
-    public void lazyStart() throws IOException {
-        ContainerBuilder cb;
+    private String poolKey() {
+        return PodPool.key(engine.getNamespace(), image, environment);
+    }
 
+    public synchronized void lazyStart() throws IOException {
         if (pod != null) {
             return;
         }
-        pod = UUID.randomUUID().toString();
+        if (poolOpt != null) {
+            entry = poolOpt.leaseOpt(engine, CONTAINER, poolKey(), "rm", "-rf", WORKING_PATH);
+            if (entry != null) {
+                pod = entry.name;
+            }
+        }
+        if (pod == null) {
+            pod = UUID.randomUUID().toString();
+            entry = new PodPool.Entry(engine.getNamespace(), pod, System.currentTimeMillis());
+            create();
+        }
+        sync = new PodSync(engine, pod, CONTAINER, storageRoot, WORKING_PATH);
+        sync.push();
+    }
+
+    private void create() throws IOException {
+        ContainerBuilder cb;
+
         cb = new ContainerBuilder();
         cb.withName(CONTAINER)
                 .withImage(image)
@@ -66,17 +102,16 @@ public class PodExecutor extends Executor {
                 .withTerminationGracePeriodSeconds((long) 0)
                 .addAllToVolumes(new ArrayList<>())
                 .addToContainers(cb.build())
-                .endSpec().build());
-        engine.podUpload(pod, CONTAINER, storageRoot, WORKING_PATH);
+                .endSpec().build(), startTimeout);
     }
 
-    public String exec(Script script, List<String> args) throws IOException {
+    @Override
+    protected String doExec(Script script, List<String> args) throws IOException {
         String result;
         String persitentPath;
         List<String> cmd;
 
         lazyStart();
-        engine.podUpload(pod, CONTAINER, storageRoot, WORKING_PATH);
         persitentPath = WORKING_PATH + "/" + script.name;
         cmd = new ArrayList<>();
         cmd.add(SCRIPTS_PATH + "/" + script.name + ".sh");
@@ -95,6 +130,37 @@ public class PodExecutor extends Executor {
         return result;
     }
 
+    @Override
+    protected synchronized String storageOpt(Script script) throws IOException {
+        String result;
+
+        lazyStart();
+        result = engine.podExec(pod, CONTAINER, "sh", "-c",
+                "if [ -d \"$0\" ] && [ -n \"$(ls -A \"$0\")\" ]; then cd \"$0\" && tar -czf - . | base64; fi", WORKING_PATH + "/" + script.name);
+        return result.isEmpty() ? null : result;
+    }
+
+    /** before the pod is started, the storage is restored locally and pushed with everything else */
+    @Override
+    protected synchronized void restoreStorage(Script script, String tarOpt) throws IOException {
+        byte[] tar;
+        String path;
+
+        if (pod == null) {
+            restoreLocal(script, tarOpt);
+            return;
+        }
+        path = WORKING_PATH + "/" + script.name;
+        if (tarOpt == null) {
+            engine.podExec(pod, CONTAINER, "rm", "-rf", path);
+        } else {
+            // fabric8 does not signal the end of standard input, so tell the pod how many bytes to read
+            tar = tarOpt.getBytes(StandardCharsets.US_ASCII);
+            engine.podExec(pod, CONTAINER, tar, "sh", "-c",
+                    "rm -rf \"$0\" && mkdir -p \"$0\" && head -c \"$1\" | base64 -d | tar -C \"$0\" -xzf -", path, Integer.toString(tar.length));
+        }
+    }
+
     private static List<EnvVar> envVars(Map<String, String> env) {
         List<EnvVar> result;
 
@@ -105,10 +171,22 @@ public class PodExecutor extends Executor {
         return result;
     }
 
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (pod != null) {
-            engine.podDelete(pod);
-            pod = null;
+            try {
+                if (sync != null) {
+                    sync.pull();
+                }
+            } finally {
+                if (poolOpt != null && sync != null) {
+                    poolOpt.release(engine, poolKey(), entry);
+                } else {
+                    engine.podDelete(pod);
+                }
+                pod = null;
+                entry = null;
+                sync = null;
+            }
         }
     }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.inline.ArgumentException;
+import net.oneandone.stool.kubernetes.Engine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Idle chartkit pods kept for reuse by PodExecutors, so a helm run does not have to wait for a pod to start.
+ * Pods are keyed by namespace, image and environment - that's what's baked into the pod spec. A leased pod is
+ * checked and reset by wiping its working directory; pods failing this are discarded.
+ *
+ * Pooling is enabled by the server only - a short-lived cli process would leave its idle pods behind. Eviction happens
+ * whenever the pool is used with an engine for the respective namespace and on the server's schedule: pods idle for more
+ * than idleSeconds are deleted unless that leaves less than min pods for their key, pods older than MAX_AGE are
+ * always deleted. The server deletes all idle pods on shutdown. Pods lost by a crashed server terminate by themselves
+ * because they're started with a limited sleep.
+ */
+public class PodPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PodPool.class);
+
+    /** seconds; chartkit pods run "sleep 3600", so retire them well before they terminate */
+    public static final int MAX_AGE = 3000;
+
+    private static final Map<String, PodPool> POOLS = new HashMap<>();
+
+    private static volatile boolean enabled = false;
+
+    /** called by the server at startup */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /** Disables pooling and deletes all idle pods of the engine's namespace; called by the server on shutdown */
+    public static void shutdown(Engine engine) {
+        enabled = false;
+        for (PodPool pool : pools()) {
+            for (Entry entry : pool.removeAll(engine.getNamespace())) {
+                delete(engine, entry);
+            }
+        }
+    }
+
+    /** evicts pods of all pools, without waiting for the next lease or release */
+    public static void evictAll(Engine engine) {
+        for (PodPool pool : pools()) {
+            pool.evict(engine);
+        }
+    }
+
+    private static synchronized List<PodPool> pools() {
+        return new ArrayList<>(POOLS.values());
+    }
+
+    /** @return null if pooling is disabled, i.e. not enabled or max is 0 */
+    public static synchronized PodPool getOpt(int min, int max, int idleSeconds) {
+        String id;
+
+        if (!enabled || max <= 0) {
+            return null;
+        }
+        id = min + "/" + max + "/" + idleSeconds;
+        return POOLS.computeIfAbsent(id, k -> new PodPool(min, max, idleSeconds));
+    }
+
+    public static String key(String namespace, String image, Map<String, String> environment) {
+        return namespace + "|" + image + "|" + new TreeMap<>(environment);
+    }
+
+    //--
+
+    public static class Entry {
+        public final String namespace;
+        public final String name;
+        public final long started;
+        private long returned;
+
+        public Entry(String namespace, String name, long started) {
+            this.namespace = namespace;
+            this.name = name;
+            this.started = started;
+            this.returned = 0;
+        }
+    }
+
+    /** pods kept per key */
+    public final int min;
+    public final int max;
+    public final int idleSeconds;
+
+    /** maps keys to idle pods, most recently returned first */
+    private final Map<String, Deque<Entry>> idle;
+
+    public PodPool(int min, int max, int idleSeconds) {
+        if (min > max) {
+            throw new ArgumentException("podPoolMin " + min + " exceeds podPoolMax " + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.idleSeconds = idleSeconds;
+        this.idle = new HashMap<>();
+    }
+
+    /**
+     * @param reset command to reset the pod's working directory, also used as health check
+     * @return null if no healthy pod is available, caller has to start a new one
+     */
+    public Entry leaseOpt(Engine engine, String container, String key, String... reset) {
+        Entry entry;
+
+        evict(engine);
+        while (true) {
+            entry = pollOpt(key);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                engine.podExec(entry.name, container, reset);
+                LOGGER.debug("leased pod " + entry.name);
+                return entry;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("discarding unhealthy pod " + entry.name + ": " + e.getMessage());
+                delete(engine, entry);
+            }
+        }
+    }
+
+    /** Returns the pod to the pool or deletes it if there's no room or it's too old */
+    public void release(Engine engine, String key, Entry entry) {
+        Deque<Entry> lst;
+        boolean keep;
+
+        synchronized (this) {
+            lst = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+            keep = enabled && lst.size() < max && age(entry, System.currentTimeMillis()) < MAX_AGE;
+            if (keep) {
+                entry.returned = System.currentTimeMillis();
+                lst.addFirst(entry);
+            }
+        }
+        if (!keep) {
+            delete(engine, entry);
+        }
+        evict(engine);
+    }
+
+    public synchronized int size() {
+        int result;
+
+        result = 0;
+        for (Deque<Entry> lst : idle.values()) {
+            result += lst.size();
+        }
+        return result;
+    }
+
+    private synchronized Entry pollOpt(String key) {
+        Deque<Entry> lst;
+
+        lst = idle.get(key);
+        return lst == null ? null : lst.pollFirst();
+    }
+
+    /** removes idle and over-aged pods of the engine's namespace */
+    private void evict(Engine engine) {
+        List<Entry> remove;
+
+        remove = evictable(engine.getNamespace(), System.currentTimeMillis());
+        for (Entry entry : remove) {
+            delete(engine, entry);
+        }
+    }
+
+    // package-private for testing
+    synchronized List<Entry> evictable(String namespace, long now) {
+        List<Entry> result;
+        Iterator<Entry> iter;
+        Entry entry;
+        int remaining;
+
+        result = new ArrayList<>();
+        for (Deque<Entry> lst : idle.values()) {
+            remaining = lst.size();
+            // oldest returned last
+            iter = lst.descendingIterator();
+            while (iter.hasNext()) {
+                entry = iter.next();
+                if (!namespace.equals(entry.namespace)) {
+                    continue;
+                }
+                if (age(entry, now) >= MAX_AGE || (remaining > min && (now - entry.returned) / 1000 >= idleSeconds)) {
+                    iter.remove();
+                    remaining--;
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized List<Entry> removeAll(String namespace) {
+        List<Entry> result;
+        Iterator<Entry> iter;
+        Entry entry;
+
+        result = new ArrayList<>();
+        for (Deque<Entry> lst : idle.values()) {
+            iter = lst.iterator();
+            while (iter.hasNext()) {
+                entry = iter.next();
+                if (namespace.equals(entry.namespace)) {
+                    iter.remove();
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    // package-private for testing
+    synchronized void add(String key, Entry entry, long returned) {
+        entry.returned = returned;
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(entry);
+    }
+
+    private static long age(Entry entry, long now) {
+        return (now - entry.started) / 1000;
+    }
+
+    private static void delete(Engine engine, Entry entry) {
+        try {
+            engine.podDelete(entry.name);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("failed to delete pod " + entry.name + ": " + e.getMessage());
+        }
+    }
+}
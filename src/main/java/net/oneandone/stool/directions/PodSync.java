@@ -0,0 +1,202 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.util.Tar;
+import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps a local directory and a directory in a pod in sync. Tracks sha256 hashes of the files both sides agree on,
+ * and transfers only files that changed since, as a single tar stream over the exec channel: pushed through the
+ * command's standard input, pulled from its output.
+ * Empty directories are not synced.
+ */
+public class PodSync {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PodSync.class);
+
+    private final Engine engine;
+    private final String pod;
+    private final String container;
+    private final FileNode local;
+    private final String remote;
+
+    /** maps relative paths to hashes of files known to be identical on both sides */
+    private Map<String, String> known;
+
+    public PodSync(Engine engine, String pod, String container, FileNode local, String remote) {
+        this.engine = engine;
+        this.pod = pod;
+        this.container = container;
+        this.local = local;
+        this.remote = remote;
+        this.known = new TreeMap<>();
+    }
+
+    /** transfers local changes into the pod */
+    public void push() throws IOException {
+        Map<String, String> current;
+        List<String> changed;
+        List<String> removed;
+        List<String> cmd;
+        byte[] tar;
+
+        current = hashes(local);
+        changed = changed(known, current);
+        removed = removed(known, current);
+        if (changed.isEmpty()) {
+            exec(List.of("sh", "-c", "mkdir -p \"$0\"", remote));
+        } else {
+            // fabric8 does not signal the end of standard input, so tell the pod how many bytes to read
+            tar = Tar.fromFiles(local, changed).getBytes(StandardCharsets.US_ASCII);
+            engine.podExec(pod, container, tar, "sh", "-c",
+                    "mkdir -p \"$0\" && head -c \"$1\" | base64 -d | tar -C \"$0\" -xzf -", remote, Integer.toString(tar.length));
+        }
+        if (!removed.isEmpty()) {
+            cmd = new ArrayList<>();
+            cmd.add("sh");
+            cmd.add("-c");
+            cmd.add("cd \"$0\" && rm -f \"$@\"");
+            cmd.add(remote);
+            cmd.addAll(removed);
+            exec(cmd);
+        }
+        LOGGER.debug("pushed " + changed.size() + " file(s), removed " + removed.size() + " file(s)");
+        known = current;
+    }
+
+    /** transfers changes from the pod into the local directory */
+    public void pull() throws IOException {
+        Map<String, String> current;
+        List<String> changed;
+        List<String> removed;
+        List<String> cmd;
+
+        current = parseHashes(exec(List.of("sh", "-c", "cd \"$0\" && find . -type f -exec sha256sum {} +", remote)));
+        changed = changed(known, current);
+        removed = removed(known, current);
+        if (!changed.isEmpty()) {
+            cmd = new ArrayList<>();
+            cmd.add("sh");
+            cmd.add("-c");
+            cmd.add("cd \"$0\" && tar -czf - \"$@\" | base64");
+            cmd.add(remote);
+            cmd.addAll(changed);
+            Tar.extract(exec(cmd), local);
+        }
+        for (String path : removed) {
+            local.join(path).deleteFile();
+        }
+        LOGGER.debug("pulled " + changed.size() + " file(s), removed " + removed.size() + " file(s)");
+        known = current;
+    }
+
+    private String exec(List<String> cmd) throws IOException {
+        return engine.podExec(pod, container, Strings.toArray(cmd));
+    }
+
+    //--
+
+    public static Map<String, String> hashes(FileNode dir) throws IOException {
+        Map<String, String> result;
+        MessageDigest digest;
+
+        result = new TreeMap<>();
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (FileNode file : dir.find("**/*")) {
+            if (file.isFile()) {
+                result.put(file.getRelative(dir), hex(digest.digest(file.readBytes())));
+            }
+        }
+        return result;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /** @param str sha256sum output */
+    public static Map<String, String> parseHashes(String str) throws IOException {
+        Map<String, String> result;
+        int idx;
+        String path;
+
+        result = new TreeMap<>();
+        for (String line : str.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            idx = line.indexOf("  ");
+            if (idx == -1) {
+                throw new IOException("unexpected sha256sum output: " + line);
+            }
+            path = line.substring(idx + 2);
+            if (path.startsWith("./")) {
+                path = path.substring(2);
+            }
+            result.put(path, line.substring(0, idx));
+        }
+        return result;
+    }
+
+    /** @return paths in current that are new or have a different hash */
+    public static List<String> changed(Map<String, String> known, Map<String, String> current) {
+        List<String> result;
+
+        result = new ArrayList<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(known.get(entry.getKey()))) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** @return paths in known that are gone in current */
+    public static List<String> removed(Map<String, String> known, Map<String, String> current) {
+        List<String> result;
+
+        result = new ArrayList<>();
+        for (String path : known.keySet()) {
+            if (!current.containsKey(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+}
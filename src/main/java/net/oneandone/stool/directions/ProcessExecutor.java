@@ -15,6 +15,7 @@
  */
 package net.oneandone.stool.directions;
 
+import net.oneandone.stool.util.Tar;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.launcher.Launcher;
 
@@ -28,7 +29,8 @@ public class ProcessExecutor extends Executor {
         super(environment, storageRoot);
     }
 
-    public String exec(Script script, List<String> args) throws IOException {
+    @Override
+    protected String doExec(Script script, List<String> args) throws IOException {
         Launcher launcher;
 
         launcher = script.file.getParent().launcher();
@@ -46,6 +48,19 @@ public class ProcessExecutor extends Executor {
         return launcher.exec();
     }
 
+    @Override
+    protected String storageOpt(Script script) throws IOException {
+        FileNode dir;
+
+        dir = storageRoot.join(script.name);
+        return dir.isDirectory() ? Tar.fromDirOpt(dir) : null;
+    }
+
+    @Override
+    protected void restoreStorage(Script script, String tarOpt) throws IOException {
+        restoreLocal(script, tarOpt);
+    }
+
     public void close() {
         // nothing to do
     }
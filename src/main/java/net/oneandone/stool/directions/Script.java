@@ -24,7 +24,11 @@ import net.oneandone.sushi.util.Strings;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Script {
     public static List<Script> forTest(World world, String str) throws IOException {
@@ -36,25 +40,44 @@ public class Script {
 
     }
     public static List<Script> scanOpt(FileNode dir) throws IOException {
+        return scanOpt(dir, Collections.emptyMap());
+    }
+
+    /** @param cache maps script names to seconds their output is cached */
+    public static List<Script> scanOpt(FileNode dir, Map<String, Integer> cache) throws IOException {
         List<Script> result;
+        Set<String> unknown;
         String name;
 
         result = new ArrayList<>();
+        unknown = new HashSet<>(cache.keySet());
         if (dir.exists()) {
             for (FileNode file : dir.list()) {
                 name = Strings.removeRight(file.checkFile().getName(), ".sh");
-                result.add(new Script(name, file));
+                unknown.remove(name);
+                result.add(new Script(name, file, cache.getOrDefault(name, 0)));
             }
         }
+        if (!unknown.isEmpty()) {
+            throw new ArgumentException("cache configured for unknown script(s): " + unknown);
+        }
         return result;
     }
 
     public final String name;
     public final FileNode file;
 
+    /** seconds to cache the output; 0 to always run the script */
+    public final int cacheSeconds;
+
     public Script(String name, FileNode file) {
+        this(name, file, 0);
+    }
+
+    public Script(String name, FileNode file, int cacheSeconds) {
         this.name = name;
         this.file = file;
+        this.cacheSeconds = cacheSeconds;
     }
 
     public String exec(Executor executor, List argsRaw) throws IOException {
@@ -0,0 +1,159 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers script output for scripts declared with a cache in chartkit.yaml. Keys digest everything a script is
+ * supposed to depend on: name, script file, arguments, environment and the script's storage directory.
+ * Scripts doing anything beyond that, e.g. fetching remote state, must not be declared cacheable.
+ *
+ * Entries also hold the storage the script left behind, so a hit can replay it. And they're registered under the key
+ * of that storage as well: a cacheable script has to be idempotent, i.e. running it again on its own storage yields
+ * the same output and storage. Otherwise, a script that writes storage would never hit on its next invocation.
+ */
+public class ScriptCache {
+    public static final ScriptCache INSTANCE = new ScriptCache(1000);
+
+    public static class Entry {
+        public final String output;
+        /** base64-encoded tgz of the script's storage after the run; null if there's no storage */
+        public final String storageOpt;
+        public final long expires;
+
+        Entry(String output, String storageOpt, long expires) {
+            this.output = output;
+            this.storageOpt = storageOpt;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public ScriptCache(int maxSize) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScriptCache.Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public synchronized Entry getOpt(String key, long now) {
+        Entry entry;
+
+        entry = entries.get(key);
+        if (entry != null && entry.expires <= now) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        } else {
+            hits++;
+            return entry;
+        }
+    }
+
+    public synchronized void put(String key, String output, String storageOpt, int seconds, long now) {
+        entries.put(key, new Entry(output, storageOpt, now + seconds * 1000L));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** @return -1 if the cache was not used yet */
+    public synchronized double hitRatio() {
+        return hits + misses == 0 ? -1 : (double) hits / (hits + misses);
+    }
+
+    //--
+
+    public static String key(Script script, List<String> args, Map<String, String> environment, FileNode storageRoot) throws IOException {
+        MessageDigest digest;
+        FileNode storage;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, script.name);
+        digest.update(script.file.readBytes());
+        update(digest, "");
+        for (String arg : args) {
+            update(digest, arg);
+        }
+        update(digest, "");
+        for (Map.Entry<String, String> entry : new TreeMap<>(environment).entrySet()) {
+            update(digest, entry.getKey());
+            update(digest, entry.getValue());
+        }
+        update(digest, "");
+        storage = storageRoot.join(script.name);
+        if (storage.isDirectory()) {
+            for (FileNode file : files(storage).values()) {
+                update(digest, file.getRelative(storage));
+                digest.update(file.readBytes());
+                update(digest, "");
+            }
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static Map<String, FileNode> files(FileNode dir) throws IOException {
+        Map<String, FileNode> result;
+
+        result = new TreeMap<>();
+        for (FileNode file : dir.find("**/*")) {
+            if (file.isFile()) {
+                result.put(file.getRelative(dir), file);
+            }
+        }
+        return result;
+    }
+
+    /** zero-terminated, so adjacent values cannot be confused */
+    private static void update(MessageDigest digest, String str) {
+        digest.update(str.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
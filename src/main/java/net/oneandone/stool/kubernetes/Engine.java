@@ -29,43 +29,57 @@ import io.fabric8.kubernetes.api.model.PodBuilder;
 import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.api.model.Quantity;
 import io.fabric8.kubernetes.api.model.Secret;
-import io.fabric8.kubernetes.api.model.SecretList;
 import io.fabric8.kubernetes.api.model.ServiceAccount;
 import io.fabric8.kubernetes.api.model.ServiceAccountBuilder;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
 import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
 import io.fabric8.kubernetes.api.model.metrics.v1beta1.ContainerMetrics;
 import io.fabric8.kubernetes.api.model.metrics.v1beta1.PodMetrics;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.PodMetricsList;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.LocalPortForward;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.WatcherException;
+import io.fabric8.kubernetes.client.dsl.ContainerResource;
 import io.fabric8.kubernetes.client.dsl.ExecListener;
 import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
+import io.fabric8.kubernetes.client.dsl.Resource;
+import io.fabric8.kubernetes.client.dsl.TtyExecOutputErrorable;
+import io.fabric8.kubernetes.client.dsl.base.OperationContext;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.SharedInformerFactory;
 import io.fabric8.openshift.api.model.PolicyRuleBuilder;
 import io.fabric8.openshift.api.model.RoleBindingBuilder;
 import io.fabric8.openshift.api.model.RoleBuilder;
 import io.fabric8.openshift.client.DefaultOpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftClient;
 import net.oneandone.stool.cli.PodConfig;
-import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.util.Strings;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 public class Engine implements AutoCloseable {
     public static Engine createCluster(ObjectMapper json) {
@@ -171,47 +185,36 @@ public class Engine implements AutoCloseable {
 
     /** @return true for 0 spec replicas */
     public DeploymentInfo deploymentAwaitAvailable(String name) throws IOException {
-        DeploymentInfo info;
-        int count;
-
-        count = 0;
-        while (true) {
-            info = deploymentProbe(name);
-            if (info.specReplicas == 0 || info.statusAvailable > 0) {
-                return info;
-            }
-            count++;
-            if (count > 500) {
-                throw new IOException(name + ": waiting for available replicas timed out");
-            }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                throw new IOException(name + "waiting for replicas interrupted", e);
-            }
+        return deploymentAwaitAvailable(name, DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    public DeploymentInfo deploymentAwaitAvailable(String name, int timeoutSeconds) throws IOException {
+        Deployment deployment;
+
+        deployment = await(name + ": waiting for available replicas", timeoutSeconds,
+                client.apps().deployments().inNamespace(namespace).withName(name),
+                d -> {
+                    DeploymentInfo i;
+
+                    if (d == null) {
+                        return true;
+                    }
+                    i = DeploymentInfo.create(d);
+                    return i.specReplicas == 0 || i.statusAvailable > 0;
+                });
+        if (deployment == null) {
+            throw new FileNotFoundException("deployment/" + name);
         }
+        return DeploymentInfo.create(deployment);
     }
 
     public void deploymentAwaitGone(String name) throws IOException {
-        DeploymentInfo info;
-        int count;
-
-        count = 0;
-        while (true) {
-            info = deploymentProbe(name);
-            if (info == null) {
-                return;
-            }
-            count++;
-            if (count > 500) {
-                throw new IOException(name + ": waiting for deployment to vanish timed out");
-            }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                throw new IOException(name + "waiting for deployment to vanish interrupted", e);
-            }
-        }
+        deploymentAwaitGone(name, DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    public void deploymentAwaitGone(String name, int timeoutSeconds) throws IOException {
+        await(name + ": waiting for deployment to vanish", timeoutSeconds,
+                client.apps().deployments().inNamespace(namespace).withName(name), d -> d == null);
     }
 
     public void deploymentCreate(String name, Map<String, String> selector, Map<String, String> deploymentLabels,
@@ -323,6 +326,10 @@ public class Engine implements AutoCloseable {
     }
 
     public boolean podCreate(Pod pod) throws IOException {
+        return podCreate(pod, DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    public boolean podCreate(Pod pod, int timeoutSeconds) throws IOException {
         String phase;
 
         try {
@@ -331,7 +338,7 @@ public class Engine implements AutoCloseable {
             throw wrap(e);
         }
 
-        phase = podAwait(pod.getMetadata().getName(), "Running", "Failed", "Succeeded");
+        phase = podAwait(pod.getMetadata().getName(), timeoutSeconds, "Running", "Failed", "Succeeded");
         if (phase.equals("Failed")) {
             throw new IOException("create-pod failed: " + phase);
         }
@@ -400,36 +407,31 @@ public class Engine implements AutoCloseable {
     }
 
     public String podAwait(String name, String... expectedPhases) throws IOException {
-        PodInfo info;
-        int count;
-        String phase;
+        return podAwait(name, DEFAULT_AWAIT_TIMEOUT, expectedPhases);
+    }
 
-        count = 0;
-        while (true) {
-            info = podProbe(name);
-            phase = info == null ? null : info.phase;
-            if (expectedPhases == null) {
-                if (same(null, phase)) {
-                    return null;
-                }
-            } else {
-                for (String e : expectedPhases) {
-                    if (same(e, phase)) {
-                        return phase;
+    /** @param expectedPhases null element to wait for the pod to vanish */
+    public String podAwait(String name, int timeoutSeconds, String... expectedPhases) throws IOException {
+        Pod pod;
+
+        pod = await("waiting for phase '" + toString(expectedPhases) + "'", timeoutSeconds,
+                client.pods().inNamespace(namespace).withName(name),
+                p -> {
+                    String phase;
+
+                    phase = phase(p);
+                    for (String e : expectedPhases) {
+                        if (same(e, phase)) {
+                            return true;
+                        }
                     }
-                }
-            }
-            count++;
-            if (count > 500) {
-                throw new IOException("waiting for phase '" + toString(expectedPhases)
-                        + "' timed out, phase is now " + phase);
-            }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                throw new IOException("waiting for phase '" + toString(expectedPhases) + "' interrupted", e);
-            }
-        }
+                    return false;
+                });
+        return phase(pod);
+    }
+
+    private static String phase(Pod pod) {
+        return pod == null || pod.getStatus() == null ? null : pod.getStatus().getPhase();
     }
 
     public String podLogs(String pod) throws IOException {
@@ -445,30 +447,24 @@ public class Engine implements AutoCloseable {
     }
 
     public String podExec(String pod, String container, String... command) throws IOException {
-        StoolExecListener listener;
+        return podExec(pod, container, null, command);
+    }
+
+    /**
+     * @param inputOpt passed to the command's standard input; fabric8 does not signal the end of input, so the command
+     *                 has to stop reading by itself, e.g. with head -c
+     */
+    public String podExec(String pod, String container, byte[] inputOpt, String... command) throws IOException {
         ByteArrayOutputStream output;
         ByteArrayOutputStream error;
         String str;
 
-        listener = new StoolExecListener();
         output = new ByteArrayOutputStream();
         error = new ByteArrayOutputStream();
-        try (ExecWatch watch = client.pods().inNamespace(namespace).withName(pod).inContainer(container)
-                .writingOutput(output)
-                .writingError(error)
-                .usingListener(listener)
-                .exec(command)) {
-            while (listener.closeReason == null) { // TODO: busy wait
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-            str = error.toString(StandardCharsets.UTF_8);
-            if (!str.isEmpty()) {
-                throw new IOException("exec failed: " + str);
-            }
+        podExec(pod, container, inputOpt == null ? null : new ByteArrayInputStream(inputOpt), output, error, command);
+        str = error.toString(StandardCharsets.UTF_8);
+        if (!str.isEmpty()) {
+            throw new IOException("exec failed: " + str);
         }
         str = output.toString(StandardCharsets.UTF_8);
         if (str.startsWith("OCI runtime exec failed")) { // TODO: why is this written to standard-out?
@@ -477,6 +473,41 @@ public class Engine implements AutoCloseable {
         return str;
     }
 
+    /**
+     * Streaming variant: output and error chunks are written as they arrive; returns as soon as the exec channel is closed.
+     * Does not check error output, that's up to the caller.
+     */
+    public void podExec(String pod, String container, OutputStream output, OutputStream error, String... command) throws IOException {
+        podExec(pod, container, null, output, error, command);
+    }
+
+    private void podExec(String pod, String container, InputStream inputOpt, OutputStream output, OutputStream error,
+                         String... command) throws IOException {
+        StoolExecListener listener;
+        ContainerResource<LogWatch, InputStream, PipedOutputStream, OutputStream, PipedInputStream, String, ExecWatch, Boolean,
+                InputStream, Boolean> resource;
+        TtyExecOutputErrorable<String, OutputStream, PipedInputStream, ExecWatch> exec;
+
+        listener = new StoolExecListener();
+        resource = client.pods().inNamespace(namespace).withName(pod).inContainer(container);
+        exec = inputOpt == null ? resource : resource.readingInput(inputOpt);
+        try (ExecWatch watch = exec
+                .writingOutput(output)
+                .writingError(error)
+                .usingListener(listener)
+                .exec(command)) {
+            listener.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("exec interrupted: " + toString(command));
+        } catch (KubernetesClientException e) {
+            throw wrap(e);
+        }
+        if (!listener.failures.isEmpty()) {
+            throw new IOException("exec failed: " + toString(command), listener.failures.get(0));
+        }
+    }
+
     public ExecWatch podExecInteractive(String pod, String container, String[] command, ExecListener listener) {
         return client.pods().inNamespace(namespace).withName(pod).inContainer(container)
                 .readingInput(System.in)
@@ -487,34 +518,6 @@ public class Engine implements AutoCloseable {
                 .exec(command);
     }
 
-    public void podDownload(String podName, String container, String src, FileNode dest) throws IOException {
-        FileNode tmp;
-
-        dest.checkNotExists();
-        if (!src.startsWith("/") || src.endsWith("/")) {
-            throw new IllegalArgumentException(src);
-        }
-        tmp = dest.getParent().createTempDirectory();
-        try {
-            if (!client.pods().inNamespace(namespace).withName(podName).inContainer(container).dir(src).copy(tmp.toPath())) {
-                throw new IllegalStateException("pod: " + podName + " copy " + src + " " + dest);
-            }
-            tmp.join(src.substring(1)).checkDirectory().move(dest);
-        } finally {
-            tmp.deleteTree();
-        }
-    }
-
-    public void podUpload(String podName, String container, FileNode src, String dest) throws IOException {
-        src.checkDirectory();
-        if (!dest.startsWith("/") || dest.endsWith("/")) {
-            throw new IllegalArgumentException(dest);
-        }
-        if (!client.pods().inNamespace(namespace).withName(podName).inContainer(container).dir(dest).upload(src.toPath())) {
-            throw new IllegalStateException("pod: " + podName + " copy " + src + " " + dest);
-        }
-    }
-
     private static String toString(String[] args) {
         StringBuilder result;
 
@@ -558,54 +561,69 @@ public class Engine implements AutoCloseable {
     //-- helm
 
     public ObjectNode helmRead(String name) throws IOException {
-        return helmSecretRead(helmSecretName(name));
+        return helmRelease(name).read();
     }
 
     public String helmSecretName(String name) throws IOException {
+        return helmRelease(name).secretName;
+    }
+
+    /** Deployed release with the specified name, including its data and annotations; a single api call. */
+    public HelmRelease helmRelease(String name) throws IOException {
         List<Secret> lst;
 
-        try {
-            lst = client.secrets().inNamespace(namespace)
-                    .withLabels(Strings.toMap("owner", "helm", "name", name, "status", "deployed")).list().getItems();
-        } catch (KubernetesClientException e) {
-            throw wrap(e);
-        }
+        lst = helmSecrets(Strings.toMap("owner", "helm", "name", name, "status", "deployed"), null);
         switch (lst.size()) {
             case 0:
                 throw new java.io.FileNotFoundException("helm release not found: " + name);
             case 1:
-                return lst.get(0).getMetadata().getName();
+                return HelmRelease.create(json, lst.get(0));
             default:
                 throw new IllegalStateException(lst.toString());
         }
     }
 
+    /** All deployed releases, including their data and annotations; a single api call. */
+    public HelmSnapshot helmSnapshot() throws IOException {
+        return helmSnapshot(new HashMap<>(), null);
+    }
+
+    /**
+     * Deployed releases with the specified labels (matched server-side); a single api call.
+     * @param withoutLabelOpt to restrict the result to secrets without this label; null for no restriction
+     */
+    public HelmSnapshot helmSnapshot(Map<String, String> labels, String withoutLabelOpt) throws IOException {
+        Map<String, String> selector;
+        HelmSnapshot result;
+
+        selector = new HashMap<>(labels);
+        selector.put("owner", "helm");
+        selector.put("status", "deployed");
+        result = new HelmSnapshot();
+        for (Secret secret : helmSecrets(selector, withoutLabelOpt)) {
+            result.add(HelmRelease.create(json, secret));
+        }
+        return result;
+    }
+
     public List<String> helmList() throws IOException {
-        SecretList lst;
-        List<String> result;
+        return helmSnapshot().names();
+    }
 
-        result = new ArrayList<>();
+    private List<Secret> helmSecrets(Map<String, String> labels, String withoutLabelOpt) throws IOException {
         try {
-            lst = client.secrets().inNamespace(namespace).withLabels(Strings.toMap("owner", "helm", "status", "deployed")).list();
+            if (withoutLabelOpt == null) {
+                return client.secrets().inNamespace(namespace).withLabels(labels).list().getItems();
+            } else {
+                return client.secrets().inNamespace(namespace).withLabels(labels).withoutLabel(withoutLabelOpt).list().getItems();
+            }
         } catch (KubernetesClientException e) {
             throw wrap(e);
         }
-        for (Secret secret : lst.getItems()) {
-            result.add(secret.getMetadata().getLabels().get("name"));
-        }
-        return result;
     }
 
     public ObjectNode helmSecretRead(String secretName) throws IOException {
-        Secret s;
-        byte[] release;
-
-        s = secretRead(secretName);
-        release = Base64.getDecoder().decode(s.getData().get("release"));
-        release = Base64.getDecoder().decode(release);
-        try (Reader src = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(release)))) {
-            return (ObjectNode) json.readTree(src);
-        }
+        return HelmRelease.create(json, secretRead(secretName)).read();
     }
 
     private Secret secretRead(String name) throws IOException {
@@ -623,10 +641,14 @@ public class Engine implements AutoCloseable {
     }
 
     public void secretAddAnnotations(String name, Map<String, String> map) throws IOException {
+        secretAddMetadata(name, new HashMap<>(), map);
+    }
+
+    public void secretAddMetadata(String name, Map<String, String> labels, Map<String, String> annotations) throws IOException {
         try {
             client.secrets().inNamespace(namespace).withName(name).edit(
                     ObjectMetaBuilder.class,
-                    omb -> omb.addToAnnotations(map)
+                    omb -> omb.addToLabels(labels).addToAnnotations(annotations)
             );
         } catch (KubernetesClientException e) {
             throw wrap(e);
@@ -641,6 +663,112 @@ public class Engine implements AutoCloseable {
         }
     }
 
+    //-- waiting
+
+    /** in seconds */
+    public static final int DEFAULT_AWAIT_TIMEOUT = 50;
+
+    /**
+     * Completes with the first state of the resource that matches the condition; null represents a resource that does not exist.
+     * Based on a watch, which is started before the initial state is checked, so no change is missed. Cancel the future to stop
+     * waiting; the watch is closed when the future completes in any way.
+     */
+    public static <T> CompletableFuture<T> awaitCondition(Resource<T> resource, Predicate<T> condition) {
+        CompletableFuture<T> result;
+        Watch watch;
+
+        result = new CompletableFuture<>();
+        watch = resource.watch(new Watcher<T>() {
+            @Override
+            public void eventReceived(Action action, T obj) {
+                switch (action) {
+                    case ADDED:
+                    case MODIFIED:
+                        test(result, condition, obj);
+                        break;
+                    case DELETED:
+                        test(result, condition, null);
+                        break;
+                    default:
+                        // ignore errors and bookmarks
+                        break;
+                }
+            }
+
+            @Override
+            public void onClose(WatcherException cause) {
+                result.completeExceptionally(cause);
+            }
+        });
+        result.whenComplete((obj, e) -> watch.close());
+        try {
+            test(result, condition, resource.get());
+        } catch (KubernetesClientException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <T> void test(CompletableFuture<T> result, Predicate<T> condition, T obj) {
+        try {
+            if (condition.test(obj)) {
+                result.complete(obj);
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static <T> T await(String what, int timeoutSeconds, Resource<T> resource, Predicate<T> condition) throws IOException {
+        CompletableFuture<T> future;
+        Throwable cause;
+
+        try {
+            future = awaitCondition(resource, condition);
+        } catch (KubernetesClientException e) {
+            throw wrap(e);
+        }
+        try {
+            return future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException(what + " timed out after " + timeoutSeconds + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(what + " interrupted");
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof KubernetesClientException kce) {
+                throw wrap(kce);
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            } else {
+                throw new IOException(what + " failed: " + cause.getMessage(), cause);
+            }
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    //-- informers
+
+    public SharedInformerFactory informerFactory() {
+        return client.informers().inNamespace(namespace);
+    }
+
+    /** informs about all helm release secrets, regardless of their status */
+    public SharedIndexInformer<Secret> helmInformer(SharedInformerFactory factory, long resyncMillis) {
+        return factory.sharedIndexInformerFor(Secret.class,
+                new OperationContext().withNamespace(namespace).withLabels(Strings.toMap("owner", "helm")), resyncMillis);
+    }
+
+    public SharedIndexInformer<Deployment> deploymentInformer(SharedInformerFactory factory, long resyncMillis) {
+        return factory.sharedIndexInformerFor(Deployment.class, resyncMillis);
+    }
+
+    public SharedIndexInformer<Pod> podInformer(SharedInformerFactory factory, long resyncMillis) {
+        return factory.sharedIndexInformerFor(Pod.class, resyncMillis);
+    }
+
     //--
 
     private static boolean same(String left, String right) {
@@ -682,6 +810,33 @@ public class Engine implements AutoCloseable {
         return new Stats(usage.get("cpu").toString(), usage.get("memory").toString());
     }
 
+    /** @return stats of all pods in the namespace that have the specified container; empty if metrics are not available */
+    public Map<String, Stats> statsList(String container) {
+        PodMetricsList lst;
+        Map<String, Stats> result;
+        Map<String, Quantity> usage;
+
+        try {
+            lst = client.top().pods().metrics(namespace);
+        } catch (KubernetesClientException e) {
+            if (e.getCode() == 404) {
+                return new HashMap<>();
+            } else {
+                throw e;
+            }
+        }
+        result = new HashMap<>();
+        for (PodMetrics p : lst.getItems()) {
+            for (ContainerMetrics cm : p.getContainers()) {
+                if (cm.getName().equals(container)) {
+                    usage = cm.getUsage();
+                    result.put(p.getMetadata().getName(), new Stats(usage.get("cpu").toString(), usage.get("memory").toString()));
+                }
+            }
+        }
+        return result;
+    }
+
     private ContainerMetrics container(PodMetrics p, String container) {
         for (ContainerMetrics cm : p.getContainers()) {
             if (cm.getName().equals(container)) {
@@ -785,20 +940,4 @@ public class Engine implements AutoCloseable {
             throw new IOException("delete failed: " + name);
         }
     }
-
-    //--
-
-    public void imageDownload(String image, String src, FileNode dest) throws IOException {
-        String podName;
-
-        podName = UUID.randomUUID().toString();
-        if (!podCreate(podName, image, 0, "sleep", "3600")) {
-            throw new IOException("failed to create pod for image " + image);
-        }
-        try {
-            podDownload(podName, CONTAINER_NAME, src, dest);
-        } finally {
-            podDelete(podName);
-        }
-    }
 }
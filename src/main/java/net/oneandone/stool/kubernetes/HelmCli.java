@@ -0,0 +1,115 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.kubernetes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the helm binary for every operation. Values are passed on stdin, and the deployed release is taken from helm's
+ * json output - no temp files, and no need to read the release back from the cluster.
+ */
+public class HelmCli {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HelmCli.class);
+
+    private final ObjectMapper json;
+    private final FileNode dir;
+    private final String kubeContextOpt;
+
+    public HelmCli(ObjectMapper json, FileNode dir, String kubeContextOpt) {
+        this.json = json;
+        this.dir = dir;
+        this.kubeContextOpt = kubeContextOpt;
+    }
+
+    /**
+     * @param values yaml
+     * @return the release just deployed, as Helm stores it in the release secret
+     */
+    public ObjectNode deploy(boolean upgrade, String name, String chart, String values) throws IOException {
+        return (ObjectNode) json.readTree(run(values, upgrade ? "upgrade" : "install", "--debug", "--values", "-", "--output", "json", name, chart));
+    }
+
+    public void uninstall(String name) throws IOException {
+        run(null, "uninstall", name);
+    }
+
+    /** @return stdout */
+    private String run(String stdinOpt, String... args) throws IOException {
+        List<String> cmd;
+        Process process;
+        CompletableFuture<String> stderr;
+        String stdout;
+        int exitCode;
+
+        cmd = new ArrayList<>();
+        cmd.add("helm");
+        if (kubeContextOpt != null) {
+            cmd.add("--kube-context");
+            cmd.add(kubeContextOpt);
+        }
+        cmd.addAll(List.of(args));
+        LOGGER.debug(cmd.toString());
+        process = new ProcessBuilder(cmd).directory(dir.toPath().toFile()).start();
+        stderr = CompletableFuture.supplyAsync(() -> readOpt(process.getErrorStream()));
+        try (OutputStream dest = process.getOutputStream()) {
+            if (stdinOpt != null) {
+                dest.write(stdinOpt.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // helm terminated without reading its input - the exit code tells why
+            LOGGER.debug("writing stdin failed", e);
+        }
+        try (InputStream src = process.getInputStream()) {
+            stdout = new String(src.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try {
+            exitCode = process.waitFor();
+            LOGGER.info(stderr.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new InterruptedIOException(cmd.toString());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        if (exitCode != 0) {
+            throw new IOException(cmd + " failed with exit code " + exitCode + ":\n" + stderr.join() + stdout);
+        }
+        return stdout;
+    }
+
+    private static String readOpt(InputStream src) {
+        try (InputStream in = src) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "(stderr not available: " + e.getMessage() + ")";
+        }
+    }
+}
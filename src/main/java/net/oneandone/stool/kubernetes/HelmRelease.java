@@ -0,0 +1,86 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.kubernetes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.Secret;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/** A deployed helm release as stored in its release secret. Decoding is deferred because it's the expensive part. */
+public class HelmRelease {
+    public static HelmRelease create(ObjectMapper json, Secret secret) {
+        Map<String, String> labels;
+        Map<String, String> annotations;
+        String data;
+
+        if (secret.getMetadata() == null) {
+            throw new IllegalStateException("no metadata");
+        }
+        labels = secret.getMetadata().getLabels();
+        if (labels == null || labels.get("name") == null) {
+            throw new IllegalStateException("not a helm release secret: " + secret.getMetadata().getName());
+        }
+        annotations = secret.getMetadata().getAnnotations();
+        data = secret.getData() == null ? null : secret.getData().get("release");
+        return new HelmRelease(json, labels.get("name"), secret.getMetadata().getName(),
+                labels, annotations == null ? new HashMap<>() : annotations, data);
+    }
+
+    /** @return name of the secret Helm stores this release object in */
+    public static String secretName(ObjectNode release) {
+        return "sh.helm.release.v1." + release.get("name").asText() + ".v" + release.get("version").asInt();
+    }
+
+    private final ObjectMapper json;
+    public final String name;
+    public final String secretName;
+    public final Map<String, String> labels;
+    public final Map<String, String> annotations;
+    private final String data;
+
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public HelmRelease(ObjectMapper json, String name, String secretName, Map<String, String> labels, Map<String, String> annotations, String data) {
+        this.json = json;
+        this.name = name;
+        this.secretName = secretName;
+        this.labels = labels;
+        this.annotations = annotations;
+        this.data = data;
+    }
+
+    /** decodes the release object; every call returns a new object */
+    public ObjectNode read() throws IOException {
+        byte[] release;
+
+        if (data == null) {
+            throw new IOException("release data not found in secret " + secretName);
+        }
+        release = Base64.getDecoder().decode(data);
+        release = Base64.getDecoder().decode(release);
+        try (Reader src = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(release)))) {
+            return (ObjectNode) json.readTree(src);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.kubernetes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** All deployed helm releases of a namespace, as returned by a single list call. */
+public class HelmSnapshot {
+    private final Map<String, HelmRelease> releases;
+
+    public HelmSnapshot() {
+        this.releases = new LinkedHashMap<>();
+    }
+
+    public void add(HelmRelease release) {
+        if (releases.put(release.name, release) != null) {
+            throw new IllegalStateException("duplicate deployed release: " + release.name);
+        }
+    }
+
+    /** in list order */
+    public List<String> names() {
+        return new ArrayList<>(releases.keySet());
+    }
+
+    public Collection<HelmRelease> releases() {
+        return releases.values();
+    }
+
+    public HelmRelease lookup(String name) {
+        return releases.get(name);
+    }
+
+    public int size() {
+        return releases.size();
+    }
+}
@@ -3,20 +3,35 @@ package net.oneandone.stool.kubernetes;
 import io.fabric8.kubernetes.client.dsl.ExecListener;
 import okhttp3.Response;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+/** Records exec events; use await to block until the exec channel is closed or failed. */
 public class StoolExecListener implements ExecListener {
-    public Response openResponse;
-    public List<Throwable> failures;
-    public Integer closeCode;
-    public String closeReason;
+    public volatile Response openResponse;
+    public final List<Throwable> failures;
+    public volatile Integer closeCode;
+    public volatile String closeReason;
+    private final CountDownLatch done;
 
     public StoolExecListener() {
         this.openResponse = null;
-        this.failures = new ArrayList<>();
+        this.failures = new CopyOnWriteArrayList<>();
         this.closeCode = null;
         this.closeReason = null;
+        this.done = new CountDownLatch(1);
+    }
+
+    /** blocks until the channel is closed or failed */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    /** @return false if the timeout elapsed before the channel was closed or failed */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
     }
 
     @Override
@@ -30,6 +45,7 @@ public class StoolExecListener implements ExecListener {
     @Override
     public void onFailure(Throwable t, Response response) {
         failures.add(t);
+        done.countDown();
     }
 
     @Override
@@ -39,5 +55,6 @@ public class StoolExecListener implements ExecListener {
         }
         closeCode = code;
         closeReason = reason;
+        done.countDown();
     }
 }
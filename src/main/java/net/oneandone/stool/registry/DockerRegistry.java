@@ -94,7 +94,7 @@ public class DockerRegistry extends Registry {
 
         manifest = manifest(repository, tag);
         digest = manifest.get("config").get("digest").asText();
-        info = getJsonObject(root.join("v2/" + repository + "/blobs/" + digest));
+        info = getJsonObject(blob(repository, digest));
         // TODO: not available via docker registry api
         created = null;
         author = null;
@@ -128,10 +128,18 @@ public class DockerRegistry extends Registry {
         }
     }
 
-    private ObjectNode manifest(String repository, String tag) throws IOException {
+    public ObjectNode manifest(String repository, String tag) throws IOException {
         return getJsonObject(withV2Header(root.join("v2/" + repository + "/manifests/" + tag)));
     }
 
+    public String digestOpt(String repository, String reference) throws IOException {
+        return digestOpt(headManifest(root.join("v2/" + repository + "/manifests/" + reference), null));
+    }
+
+    public HttpNode blob(String repository, String digest) {
+        return root.join("v2/" + repository + "/blobs/" + digest);
+    }
+
     private HttpNode withV2Header(HttpNode node) {
         HeaderList hl;
 
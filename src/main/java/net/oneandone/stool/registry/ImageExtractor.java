@@ -0,0 +1,402 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Extracts a directory from an image by reading its layers straight from the registry, without starting a container.
+ *
+ * Layer blobs are cached on disk, named by their digest, together with an index of their entries. Layers not
+ * touching the requested path according to their index are skipped without decompressing them. Whiteouts are applied,
+ * so the result matches what a container would see. Cache files not used for MAX_UNUSED_DAYS are removed.
+ *
+ * Layers are untrusted input: entries with .. components and entries that would be written or deleted through a
+ * symbolic link are rejected, so nothing outside the destination directory is touched.
+ */
+public class ImageExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageExtractor.class);
+
+    private static final String WHITEOUT = ".wh.";
+    private static final String OPAQUE = ".wh..wh..opq";
+    private static final int MAX_UNUSED_DAYS = 30;
+
+    private final Registry registry;
+    private final FileNode cache;
+
+    public ImageExtractor(Registry registry, FileNode cache) {
+        this.registry = registry;
+        this.cache = cache;
+    }
+
+    /**
+     * @param path absolute path in the image
+     * @param dest has to not exist
+     */
+    public void extract(String repository, String tag, String path, FileNode dest) throws IOException {
+        ObjectNode manifest;
+        String root;
+        String digest;
+        String mediaType;
+        FileNode blob;
+        FileNode index;
+        boolean found;
+
+        if (!path.startsWith("/") || path.endsWith("/")) {
+            throw new IllegalArgumentException(path);
+        }
+        root = path.substring(1);
+        dest.checkNotExists();
+        cache.mkdirsOpt();
+        manifest = registry.manifest(repository, tag);
+        dest.mkdir();
+        found = false;
+        for (JsonNode layer : manifest.get("layers")) {
+            digest = layer.get("digest").asText();
+            mediaType = layer.get("mediaType").asText();
+            if (!mediaType.endsWith("tar.gzip") && !mediaType.endsWith("tar+gzip")) {
+                throw new IOException(repository + ":" + tag + ": unsupported layer type " + mediaType);
+            }
+            index = cache.join(name(digest) + ".index");
+            if (index.exists() && !relevant(root, index.readLines())) {
+                touch(index);
+                continue;
+            }
+            blob = blob(repository, digest);
+            try (InputStream src = blob.newInputStream()) {
+                found = extractLayer(src, root, dest, index.exists() ? null : index) || found;
+            }
+            touch(blob);
+            touch(index);
+        }
+        if (!found) {
+            dest.deleteTree();
+            throw new IOException(repository + ":" + tag + ": path not found: " + path);
+        }
+        prune();
+    }
+
+    /** @return cached blob, downloaded and verified if necessary */
+    private FileNode blob(String repository, String digest) throws IOException {
+        FileNode result;
+        FileNode tmp;
+        MessageDigest md;
+        String actual;
+
+        result = cache.join(name(digest));
+        if (result.exists()) {
+            return result;
+        }
+        if (!digest.startsWith("sha256:")) {
+            throw new IOException("unsupported digest: " + digest);
+        }
+        LOGGER.info("downloading layer " + digest);
+        tmp = cache.join(".tmp-" + UUID.randomUUID());
+        md = sha256();
+        try {
+            try (InputStream src = registry.openBlob(repository, digest);
+                 OutputStream dest = new DigestOutputStream(tmp.newOutputStream(), md)) {
+                src.transferTo(dest);
+            }
+            actual = "sha256:" + hex(md.digest());
+            if (!digest.equals(actual)) {
+                throw new IOException("digest mismatch for layer " + digest + ": " + actual);
+            }
+            moveAtomic(tmp.toPath(), result.toPath());
+        } finally {
+            if (tmp.exists()) {
+                tmp.deleteFile();
+            }
+        }
+        return result;
+    }
+
+    /** Remove cache files not used for a while */
+    private void prune() throws IOException {
+        long limit;
+
+        limit = System.currentTimeMillis() - MAX_UNUSED_DAYS * 24L * 60 * 60 * 1000;
+        for (FileNode file : cache.list()) {
+            if (file.isFile() && file.getLastModified() < limit) {
+                LOGGER.info("removing unused layer cache file " + file.getName());
+                file.deleteFile();
+            }
+        }
+    }
+
+    //--
+
+    /**
+     * Applies the entries below root of a gzipped layer tar to dest.
+     *
+     * @param indexOpt to write all entry names to, null if already written
+     * @return true if the layer contains root
+     */
+    static boolean extractLayer(InputStream src, String root, FileNode dest, FileNode indexOpt) throws IOException {
+        List<String> names;
+        String name;
+        String target;
+        String relative;
+        FileNode file;
+        boolean found;
+
+        names = new ArrayList<>();
+        found = false;
+        try (GzipCompressorInputStream gz = new GzipCompressorInputStream(src);
+             TarArchiveInputStream tar = new TarArchiveInputStream(gz)) {
+            for (TarArchiveEntry entry = tar.getNextTarEntry(); entry != null; entry = tar.getNextTarEntry()) {
+                name = normalize(entry.getName());
+                names.add(name);
+                target = whiteoutTarget(name);
+                if (target != null) {
+                    if (name.endsWith(OPAQUE)) {
+                        clear(root, target, dest, true);
+                    } else {
+                        clear(root, target, dest, false);
+                    }
+                    continue;
+                }
+                relative = relative(root, name);
+                if (relative == null) {
+                    continue;
+                }
+                found = true;
+                file = resolve(dest, relative);
+                if (entry.isDirectory()) {
+                    file.mkdirsOpt();
+                } else if (entry.isSymbolicLink()) {
+                    file.getParent().mkdirsOpt();
+                    deleteOpt(file);
+                    Files.createSymbolicLink(file.toPath(), Path.of(entry.getLinkName()));
+                } else if (entry.isLink()) {
+                    target = relative(root, normalize(entry.getLinkName()));
+                    if (target == null) {
+                        LOGGER.warn("skipping hard link outside of " + root + ": " + name);
+                        continue;
+                    }
+                    if (Files.isSymbolicLink(resolve(dest, target).toPath())) {
+                        throw new IOException("hard link to symbolic link: " + name);
+                    }
+                    file.getParent().mkdirsOpt();
+                    deleteOpt(file);
+                    resolve(dest, target).copyFile(file);
+                } else if (entry.isFile()) {
+                    file.getParent().mkdirsOpt();
+                    deleteOpt(file);
+                    file.copyFileFrom(tar);
+                    file.setPermissions((entry.getMode() & 0100) != 0 ? "rwxr-xr-x" : "rw-r--r--");
+                }
+            }
+        }
+        if (indexOpt != null) {
+            writeIndex(indexOpt, names);
+        }
+        return found;
+    }
+
+    /** @return true if any of the layer entries affects root */
+    static boolean relevant(String root, List<String> names) {
+        String target;
+
+        for (String name : names) {
+            target = whiteoutTarget(name);
+            if (target == null) {
+                if (relative(root, name) != null) {
+                    return true;
+                }
+            } else {
+                if (relative(root, target) != null || root.startsWith(target + "/")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return path affected by the whiteout name, null if it's not a whiteout; for opaque whiteouts it's the directory */
+    private static String whiteoutTarget(String name) {
+        int idx;
+        String base;
+
+        idx = name.lastIndexOf('/');
+        base = name.substring(idx + 1);
+        if (!base.startsWith(WHITEOUT)) {
+            return null;
+        }
+        if (base.equals(OPAQUE)) {
+            return idx == -1 ? "" : name.substring(0, idx);
+        }
+        return (idx == -1 ? "" : name.substring(0, idx + 1)) + base.substring(WHITEOUT.length());
+    }
+
+    /** deletes what target whiteouts in dest; with contentsOnly, the directory itself survives */
+    private static void clear(String root, String target, FileNode dest, boolean contentsOnly) throws IOException {
+        String relative;
+        FileNode file;
+
+        if (target.isEmpty() || root.startsWith(target + "/")) {
+            // everything below root is gone
+            for (FileNode child : dest.list()) {
+                deleteOpt(child);
+            }
+            return;
+        }
+        relative = relative(root, target);
+        if (relative == null) {
+            return;
+        }
+        file = resolve(dest, relative);
+        if (contentsOnly || relative.isEmpty()) {
+            if (file.isDirectory()) {
+                for (FileNode child : file.list()) {
+                    deleteOpt(child);
+                }
+            }
+        } else {
+            deleteOpt(file);
+        }
+    }
+
+    /**
+     * @param relative path below dest, empty for dest itself
+     * @return file for the path; the file itself may be a symbolic link, but none of its parents below dest
+     */
+    private static FileNode resolve(FileNode dest, String relative) throws IOException {
+        Path current;
+        String[] segments;
+
+        if (relative.isEmpty()) {
+            return dest;
+        }
+        current = dest.toPath();
+        segments = relative.split("/");
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].equals("..")) {
+                throw new IOException("invalid path in layer: " + relative);
+            }
+            current = current.resolve(segments[i]);
+            if (i < segments.length - 1 && Files.isSymbolicLink(current)) {
+                throw new IOException("path in layer leads through a symbolic link: " + relative);
+            }
+        }
+        return dest.join(relative);
+    }
+
+    /** @return path relative to root, empty for root itself, null if name is not below root */
+    private static String relative(String root, String name) {
+        if (name.equals(root)) {
+            return "";
+        }
+        if (name.startsWith(root + "/")) {
+            return name.substring(root.length() + 1);
+        }
+        return null;
+    }
+
+    private static String normalize(String name) {
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        while (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static void deleteOpt(FileNode file) throws IOException {
+        if (Files.isSymbolicLink(file.toPath())) {
+            Files.delete(file.toPath());
+        } else if (file.isDirectory()) {
+            file.deleteTree();
+        } else if (file.exists()) {
+            file.deleteFile();
+        }
+    }
+
+    private static void writeIndex(FileNode index, List<String> names) throws IOException {
+        FileNode tmp;
+
+        tmp = index.getParent().join(".tmp-" + UUID.randomUUID());
+        try {
+            tmp.writeLines(names);
+            moveAtomic(tmp.toPath(), index.toPath());
+        } finally {
+            if (tmp.exists()) {
+                tmp.deleteFile();
+            }
+        }
+    }
+
+    private static void moveAtomic(Path src, Path dest) throws IOException {
+        try {
+            Files.move(src, dest, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // concurrent download of the same content - fine
+        }
+    }
+
+    private static void touch(FileNode file) throws IOException {
+        if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    private static String name(String digest) {
+        return digest.replace(':', '-');
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.sushi.fs.FileNotFoundException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide index of Portus API lookups: repository name to id, and per repository tag name to tag json.
+ * Portus has no API to look up a single repository or tag, so without this index every lookup downloads complete lists.
+ * Entries are used for TTL millis, then revalidated with If-None-Match; changes made through Stool invalidate them.
+ */
+public class PortusIndex {
+    private static final Map<String, PortusIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private static final long TTL = 60_000;
+
+    /** @param key identifies the Portus instance and user */
+    public static PortusIndex get(String key) {
+        return INDEXES.computeIfAbsent(key, k -> new PortusIndex(TTL, System::currentTimeMillis));
+    }
+
+    /** the http part */
+    public interface Fetcher {
+        /** @param etagOpt to send as If-None-Match; null for an unconditional get */
+        Response get(String path, String etagOpt) throws IOException;
+    }
+
+    public static class Response {
+        /** null for status 304 */
+        public final String bodyOpt;
+        public final String etagOpt;
+
+        public Response(String bodyOpt, String etagOpt) {
+            this.bodyOpt = bodyOpt;
+            this.etagOpt = etagOpt;
+        }
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final String etagOpt;
+        private long fetched;
+
+        Entry(T value, String etagOpt, long fetched) {
+            this.value = value;
+            this.etagOpt = etagOpt;
+            this.fetched = fetched;
+        }
+    }
+
+    private final long ttl;
+    private final LongSupplier clock;
+
+    // the monitor guards the fields below; it's never held while talking to Portus, so slow requests don't block lookups
+
+    private Entry<Map<String, String>> repositories;
+    /** maps repository ids to tag names to tag json */
+    private final Map<String, Entry<Map<String, ObjectNode>>> tags;
+    /** incremented by invalidate; fetches started before are not published */
+    private long generation;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong revalidations;
+
+    PortusIndex(long ttl, LongSupplier clock) {
+        this.ttl = ttl;
+        this.clock = clock;
+        this.repositories = null;
+        this.tags = new HashMap<>();
+        this.generation = 0;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.revalidations = new AtomicLong();
+    }
+
+    /** @return repository full names to ids, in Portus order */
+    public Map<String, String> repositories(ObjectMapper json, Fetcher fetcher) throws IOException {
+        Entry<Map<String, String>> entry;
+        long started;
+        Response response;
+        Map<String, String> map;
+
+        synchronized (this) {
+            entry = repositories;
+            started = generation;
+            if (entry != null && !expired(entry)) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+        response = fetcher.get("api/v1/repositories", entry == null ? null : entry.etagOpt);
+        if (response.bodyOpt == null) {
+            revalidated(entry, started);
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        map = new LinkedHashMap<>();
+        for (JsonNode element : (ArrayNode) json.readTree(response.bodyOpt)) {
+            map.put(element.get("full_name").asText(), element.get("id").asText());
+        }
+        entry = new Entry<>(Collections.unmodifiableMap(map), response.etagOpt, clock.getAsLong());
+        synchronized (this) {
+            if (generation == started) {
+                repositories = entry;
+            }
+        }
+        return entry.value;
+    }
+
+    /** @return tag names to tag json, in Portus order */
+    public Map<String, ObjectNode> tags(ObjectMapper json, Fetcher fetcher, String repositoryId) throws IOException {
+        Entry<Map<String, ObjectNode>> entry;
+        long started;
+        Response response;
+        Map<String, ObjectNode> map;
+
+        synchronized (this) {
+            entry = tags.get(repositoryId);
+            started = generation;
+            if (entry != null && !expired(entry)) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+        try {
+            response = fetcher.get("api/v1/repositories/" + repositoryId + "/tags", entry == null ? null : entry.etagOpt);
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                tags.remove(repositoryId, entry);
+            }
+            throw e;
+        }
+        if (response.bodyOpt == null) {
+            revalidated(entry, started);
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        map = new LinkedHashMap<>();
+        for (JsonNode element : (ArrayNode) json.readTree(response.bodyOpt)) {
+            map.put(element.get("name").asText(), (ObjectNode) element);
+        }
+        entry = new Entry<>(Collections.unmodifiableMap(map), response.etagOpt, clock.getAsLong());
+        synchronized (this) {
+            if (generation == started) {
+                tags.put(repositoryId, entry);
+            }
+        }
+        return entry.value;
+    }
+
+    /** Call after modifying Portus */
+    public synchronized void invalidate(String repositoryIdOpt) {
+        generation++;
+        repositories = null;
+        if (repositoryIdOpt != null) {
+            tags.remove(repositoryIdOpt);
+        }
+    }
+
+    private boolean expired(Entry<?> entry) {
+        return clock.getAsLong() - entry.fetched >= ttl;
+    }
+
+    private void revalidated(Entry<?> entry, long started) throws IOException {
+        if (entry == null) {
+            throw new IOException("not modified, but nothing cached");
+        }
+        revalidations.incrementAndGet();
+        synchronized (this) {
+            if (generation == started) {
+                entry.fetched = clock.getAsLong();
+            }
+        }
+    }
+
+    //--
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** number of lookups answered by a 304 from Portus */
+    public long revalidations() {
+        return revalidations.get();
+    }
+
+    /** @return counters summed over all indexes */
+    public static ObjectNode status(ObjectMapper json) {
+        ObjectNode result;
+        long h;
+        long m;
+        long r;
+
+        h = 0;
+        m = 0;
+        r = 0;
+        for (PortusIndex index : INDEXES.values()) {
+            h += index.hits();
+            m += index.misses();
+            r += index.revalidations();
+        }
+        result = json.createObjectNode();
+        result.put("indexes", INDEXES.size());
+        result.put("hits", h);
+        result.put("misses", m);
+        result.put("revalidations", r);
+        return result;
+    }
+}
@@ -15,11 +15,11 @@
  */
 package net.oneandone.stool.registry;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.oneandone.stool.util.Json;
+import net.oneandone.sushi.fs.FileNotFoundException;
+import net.oneandone.sushi.fs.NewInputStreamException;
 import net.oneandone.sushi.fs.NodeInstantiationException;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.http.HttpFilesystem;
@@ -28,9 +28,12 @@ import net.oneandone.sushi.fs.http.model.HeaderList;
 import net.oneandone.sushi.fs.http.model.Method;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -70,8 +73,8 @@ public class PortusRegistry extends Registry {
     private final String password;
     private final HttpNode root;
 
-    private String authRepository;
-    private String authToken;
+    private final PortusIndex index;
+    private final TokenCache tokens;
 
     private PortusRegistry(ObjectMapper json, String host, String username, String password, HttpNode root) {
         super(json);
@@ -82,22 +85,13 @@ public class PortusRegistry extends Registry {
         this.username = username;
         this.password = password;
         this.root = root;
-
-        this.authRepository = null;
-        this.authToken = null;
+        this.index = PortusIndex.get(host + "|" + username);
+        this.tokens = TokenCache.INSTANCE;
     }
 
     /** @return list of repositories */
     public List<String> list() throws IOException {
-        List<String> result;
-        Iterator<JsonNode> iter;
-
-        result = new ArrayList<>();
-        iter = portusRepositories().elements();
-        while (iter.hasNext()) {
-            result.add(iter.next().get("full_name").asText());
-        }
-        return result;
+        return new ArrayList<>(portusRepositories().keySet());
     }
 
     /** @return list of tags; empty list if repository does not exist */
@@ -108,42 +102,68 @@ public class PortusRegistry extends Registry {
         result = new ArrayList<>();
         id = portusRepositoryIdOpt(repository);
         if (id != null) {
-            for (JsonNode element : portusTags(id)) {
-                result.add(element.get("name").asText());
-            }
+            result.addAll(portusTags(id).keySet());
         }
         return result;
     }
 
     private HttpNode repositoryAuth(String repository, HttpNode node) throws IOException {
-        String realm;
-        String service;
+        return node.withHeaders(HeaderList.of("Authorization", authorization(repository)));
+    }
+
+    private String authorization(String repository) throws IOException {
+        String scope;
+        String token;
+
+        scope = repositoryScope(repository);
+        token = tokens.tokenOpt(TokenCache.key(host, username, scope));
+        if (token == null) {
+            token = login(scope);
+        }
+        return "Bearer " + token;
+    }
+
+    private static String repositoryScope(String repository) {
+        return "repository:" + repository + ":*";
+    }
+
+    // synchronized because credentials are temporarily set on the (shared) login root
+    private synchronized String login(String scope) throws IOException {
+        TokenCache.Challenge challenge;
         HttpNode login;
-        HeaderList hl;
+        ObjectNode response;
+        String token;
+
+        challenge = challenge();
+        login = (HttpNode) root.getWorld().validNode(challenge.realm);
+        login.getRoot().setCredentials(username, password);
+        try {
+            login = login.withParameter("service", challenge.service);
+            login = login.withParameter("scope", scope);
+            response = getJsonObject(login);
+        } finally {
+            login.getRoot().setCredentials(null, null);
+        }
+        token = response.get("token").asText();
+        tokens.putToken(TokenCache.key(host, username, scope), token, response.has("expires_in") ? response.get("expires_in").asInt() : 0);
+        return token;
+    }
+
+    /** realm and service for registry api auth, discovered by an unauthenticated call */
+    private TokenCache.Challenge challenge() throws IOException {
+        TokenCache.Challenge result;
 
-        if (authRepository == null || !authRepository.equals(repository)) {
-            // auth for docker registry api
+        result = tokens.challengeOpt(host);
+        if (result == null) {
             try {
                 DockerRegistry.create(json, root).list();
                 throw new IllegalStateException(root.getUri().toString());
             } catch (AuthException e) {
-                realm = e.realm;
-                service = e.service;
-                // fall-through
-            }
-            login = (HttpNode) root.getWorld().validNode(realm);
-            login.getRoot().setCredentials(username, password);
-            try {
-                login = login.withParameter("service", service);
-                login = login.withParameter("scope", "repository:" + repository + ":*");
-                authRepository = repository;
-                authToken = getJsonObject(login).get("token").asText();
-            } finally {
-                login.getRoot().setCredentials(null, null);
+                result = new TokenCache.Challenge(e.realm, e.service);
             }
+            tokens.putChallenge(host, result);
         }
-        hl = HeaderList.of("Authorization", "Bearer " + authToken);
-        return node.withHeaders(hl);
+        return result;
     }
 
     /** implementation from https://forums.docker.com/t/retrieve-image-labels-from-manifest/37784/3 */
@@ -158,7 +178,13 @@ public class PortusRegistry extends Registry {
 
         manifest = manifest(repository, tag);
         digest = manifest.get("config").get("digest").asText();
-        info = getJsonObject(repositoryAuth(repository, root.join("v2/" + repository + "/blobs/" + digest)));
+        try {
+            info = getJsonObject(blob(repository, digest));
+        } catch (AuthException e) {
+            // cached token was rejected - retry once with a fresh one
+            tokens.invalidate(TokenCache.key(host, username, repositoryScope(repository)));
+            info = getJsonObject(blob(repository, digest));
+        }
         obj = portusTag(portusRepositoryId(repository), tag);
         created = LocalDateTime.parse(obj.get("created_at").asText(), Registry.DATE_FORMAT);
         author = obj.get("author").get("name").asText();
@@ -177,15 +203,19 @@ public class PortusRegistry extends Registry {
 
         id = portusRepositoryIdOpt(repository);
         if (id != null) {
-            Method.delete(root.join("api/v1/repositories").join(id));
+            try {
+                Method.delete(root.join("api/v1/repositories").join(id));
+            } finally {
+                index.invalidate(id);
+            }
         }
         return id != null;
     }
 
     //--
 
-    private ArrayNode portusRepositories() throws IOException {
-        return (ArrayNode) getJson(root.join("api/v1/repositories"));
+    private Map<String, String> portusRepositories() throws IOException {
+        return index.repositories(json, this::portusGet);
     }
 
     private String portusRepositoryId(String repository) throws IOException {
@@ -199,39 +229,91 @@ public class PortusRegistry extends Registry {
     }
 
     private String portusRepositoryIdOpt(String repository) throws IOException {
-        Iterator<JsonNode> iter;
-        ObjectNode obj;
-
-        iter = portusRepositories().elements();
-        while (iter.hasNext()) {
-            obj = (ObjectNode) iter.next();
-            if (repository.equals(obj.get("full_name").asText())) {
-                return obj.get("id").asText();
-            }
-        }
-        return null;
+        return portusRepositories().get(repository);
     }
 
-    private ArrayNode portusTags(String repositoryId) throws IOException {
-        return (ArrayNode) getJson(root.join("api/v1/repositories/" + repositoryId + "/tags"));
+    private Map<String, ObjectNode> portusTags(String repositoryId) throws IOException {
+        return index.tags(json, this::portusGet, repositoryId);
     }
 
     private ObjectNode portusTag(String portusRepositoryId, String tag) throws IOException {
         ObjectNode result;
-        Iterator<JsonNode> iter;
 
-        iter = portusTags(portusRepositoryId).elements();
-        while (iter.hasNext()) {
-            result = (ObjectNode) iter.next();
-            if (tag.equals(result.get("name").asText())) {
-                return result;
-            }
+        result = portusTags(portusRepositoryId).get(tag);
+        if (result == null) {
+            throw new IOException("tag not found: " + tag);
+        }
+        return result;
+    }
+
+    /** conditional get, the sushi http filesystem does not expose response headers */
+    private PortusIndex.Response portusGet(String path, String etagOpt) throws IOException {
+        HttpRequest.Builder request;
+        HttpResponse<String> response;
+
+        request = HttpRequest.newBuilder(root.getUri().resolve("/" + path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Portus-Auth", username + ":" + password)
+                .header("Accept", "application/json");
+        if (etagOpt != null) {
+            request.header("If-None-Match", etagOpt);
+        }
+        response = send(request.build(), HttpResponse.BodyHandlers.ofString());
+        switch (response.statusCode()) {
+            case 200:
+                return new PortusIndex.Response(response.body(), response.headers().firstValue("ETag").orElse(null));
+            case 304:
+                return new PortusIndex.Response(null, etagOpt);
+            case 404:
+                throw new FileNotFoundException(root.join(path));
+            default:
+                throw new IOException(path + ": unexpected status " + response.statusCode());
         }
-        throw new IOException("tag not found: " + tag);
     }
 
-    private ObjectNode manifest(String repository, String tag) throws IOException {
-        return getJsonObject(withV2Header(repositoryAuth(repository, root.join("v2/" + repository + "/manifests/" + tag))));
+    public ObjectNode manifest(String repository, String tag) throws IOException {
+        HttpNode node;
+
+        node = root.join("v2/" + repository + "/manifests/" + tag);
+        try {
+            return getJsonObject(withV2Header(repositoryAuth(repository, node)));
+        } catch (AuthException e) {
+            // cached token was rejected, e.g. because the token server was restarted - retry once with a fresh one
+            tokens.invalidate(TokenCache.key(host, username, repositoryScope(repository)));
+            return getJsonObject(withV2Header(repositoryAuth(repository, node)));
+        }
+    }
+
+    public String digestOpt(String repository, String reference) throws IOException {
+        HttpNode node;
+        HttpResponse<Void> response;
+
+        node = root.join("v2/" + repository + "/manifests/" + reference);
+        response = headManifest(node, authorization(repository));
+        if (response.statusCode() == 401) {
+            // cached token was rejected - retry once with a fresh one
+            tokens.invalidate(TokenCache.key(host, username, repositoryScope(repository)));
+            response = headManifest(node, authorization(repository));
+        }
+        return digestOpt(response);
+    }
+
+    public HttpNode blob(String repository, String digest) throws IOException {
+        return repositoryAuth(repository, root.join("v2/" + repository + "/blobs/" + digest));
+    }
+
+    @Override
+    public InputStream openBlob(String repository, String digest) throws IOException {
+        try {
+            return blob(repository, digest).newInputStream();
+        } catch (NewInputStreamException e) {
+            if (!unauthorized(e)) {
+                throw e;
+            }
+            // cached token was rejected - retry once with a fresh one
+            tokens.invalidate(TokenCache.key(host, username, repositoryScope(repository)));
+            return blob(repository, digest).newInputStream();
+        }
     }
 
     private HttpNode withV2Header(HttpNode node) {
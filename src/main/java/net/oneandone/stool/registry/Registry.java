@@ -20,18 +20,28 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.oneandone.inline.ArgumentException;
+import net.oneandone.stool.util.Futures;
 import net.oneandone.sushi.fs.FileNotFoundException;
 import net.oneandone.sushi.fs.NewInputStreamException;
 import net.oneandone.sushi.fs.http.HttpNode;
 import net.oneandone.sushi.fs.http.StatusException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Registry API I need for Stool. I didn't find a way to query tag authors with Docker Registry API V2, so prerequisite is Portus for now.
@@ -47,6 +57,20 @@ public abstract class Registry {
 
     public abstract TagInfo info(String repository, String tag) throws IOException;
 
+    /** @return image manifest, schema version 2 */
+    public abstract ObjectNode manifest(String repository, String reference) throws IOException;
+
+    /** @return node to read the blob from, with authentication if necessary */
+    public abstract HttpNode blob(String repository, String digest) throws IOException;
+
+    /** @return stream to read the blob from */
+    public InputStream openBlob(String repository, String digest) throws IOException {
+        return blob(repository, digest).newInputStream();
+    }
+
+    /** @return manifest digest, determined with a HEAD request; null if not found */
+    public abstract String digestOpt(String repository, String reference) throws IOException;
+
     //--
 
     public static List<String> toList(ArrayNode array) {
@@ -83,6 +107,47 @@ public abstract class Registry {
 
     //--
 
+    /** for requests that need response headers, which the sushi http filesystem does not expose */
+    protected static final HttpClient HTTP = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+
+    protected static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return HTTP.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(request.uri().toString());
+        }
+    }
+
+    /** @param authorizationOpt Authorization header value, null for none */
+    protected static HttpResponse<Void> headManifest(HttpNode node, String authorizationOpt) throws IOException {
+        HttpRequest.Builder request;
+
+        request = HttpRequest.newBuilder(node.getUri())
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(60))
+                .header("Accept", MANIFEST_V2);
+        if (authorizationOpt != null) {
+            request.header("Authorization", authorizationOpt);
+        }
+        return send(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    /** @return null for 404 */
+    protected static String digestOpt(HttpResponse<Void> response) throws IOException {
+        switch (response.statusCode()) {
+            case 200:
+                return response.headers().firstValue("Docker-Content-Digest").orElseThrow(
+                        () -> new IOException(response.uri() + ": missing Docker-Content-Digest header"));
+            case 404:
+                return null;
+            default:
+                throw new IOException(response.uri() + ": unexpected status " + response.statusCode());
+        }
+    }
+
+    protected static final String MANIFEST_V2 = "application/vnd.docker.distribution.manifest.v2+json";
+
     protected final ObjectMapper json;
 
     protected Registry(ObjectMapper json) {
@@ -113,12 +178,29 @@ public abstract class Registry {
         }
     }
 
+    protected static boolean unauthorized(NewInputStreamException e) {
+        return e.getCause() instanceof StatusException se && se.getStatusLine().code == 401;
+    }
+
     //--
 
     /** @return sorted list, oldest first */
     public List<TagInfo> list(String repositoryPath) throws IOException {
+        return list(repositoryPath, 1, 0);
+    }
+
+    /**
+     * Fetches tag infos concurrently.
+     *
+     * @param parallelism max number of tag infos fetched concurrently
+     * @param timeoutSeconds max seconds to wait for a single tag info; 0 to wait forever
+     * @return sorted list, oldest first
+     */
+    public List<TagInfo> list(String repositoryPath, int parallelism, int timeoutSeconds) throws IOException {
         List<String> tags;
         List<TagInfo> result;
+        ExecutorService executor;
+        List<Future<TagInfo>> futures;
 
         result = new ArrayList<>();
         try {
@@ -126,13 +208,45 @@ public abstract class Registry {
         } catch (net.oneandone.sushi.fs.FileNotFoundException e) {
             return result;
         }
-        for (String tag : tags) {
-            result.add(info(repositoryPath, tag));
+        if (parallelism <= 1 || tags.size() <= 1) {
+            for (String tag : tags) {
+                result.add(info(repositoryPath, tag));
+            }
+        } else {
+            executor = Executors.newFixedThreadPool(Math.min(parallelism, tags.size()));
+            try {
+                futures = new ArrayList<>(tags.size());
+                for (String tag : tags) {
+                    futures.add(executor.submit(Futures.withMdc(() -> info(repositoryPath, tag))));
+                }
+                for (int i = 0; i < tags.size(); i++) {
+                    result.add(Futures.await(repositoryPath + ":" + tags.get(i), futures.get(i), timeoutSeconds));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
         }
         Collections.sort(result);
         return result;
     }
 
+    /** @return newest tag according to TagInfo ordering, null if there are no tags */
+    public String latestTagOpt(String repositoryPath) throws IOException {
+        String result;
+
+        result = null;
+        try {
+            for (String tag : tags(repositoryPath)) {
+                if (result == null || TagInfo.compareTags(tag, result) > 0) {
+                    result = tag;
+                }
+            }
+        } catch (net.oneandone.sushi.fs.FileNotFoundException e) {
+            return null;
+        }
+        return result;
+    }
+
     public TagInfo tagInfo(String image) throws IOException {
         String tag;
         String repositoy;
@@ -163,23 +277,29 @@ public abstract class Registry {
     //--
 
     public TagInfo resolve(String imageOrRepository) throws IOException {
-        int idx;
+        String tag;
 
-        idx = imageOrRepository.indexOf(':');
-        if (idx == -1) {
-            List<TagInfo> all;
+        tag = resolveTag(imageOrRepository);
+        try {
+            return info(getRepositoryPath(toRepository(imageOrRepository)), tag);
+        } catch (FileNotFoundException e) {
+            throw new ArgumentException("image not found: " + imageOrRepository);
+        }
+    }
+
+    /** @return the tag of an image, or the latest tag of a repository */
+    public String resolveTag(String imageOrRepository) throws IOException {
+        String tag;
 
-            all = list(Registry.getRepositoryPath(imageOrRepository));
-            if (all.isEmpty()) {
+        if (imageOrRepository.indexOf(':') == -1) {
+            // fast path: ordering depends on tags only, so there's no need to fetch all infos
+            tag = latestTagOpt(getRepositoryPath(imageOrRepository));
+            if (tag == null) {
                 throw new ArgumentException("no image(s) found in repository " + imageOrRepository);
             }
-            return all.get(all.size() - 1);
+            return tag;
         } else {
-            try {
-                return tagInfo(imageOrRepository);
-            } catch (FileNotFoundException e) {
-                throw new ArgumentException("image not found: " + imageOrRepository);
-            }
+            return imageOrRepository.substring(imageOrRepository.lastIndexOf(':') + 1);
         }
     }
 
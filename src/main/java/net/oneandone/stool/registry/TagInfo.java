@@ -58,12 +58,21 @@ public class TagInfo implements Comparable<TagInfo> {
 
     @Override
     public int compareTo(TagInfo o) {
-        if (tagNumber != null && o.tagNumber != null) {
-            return tagNumber.compareTo(o.tagNumber);
-        } else if (tagNumber == null && o.tagNumber == null) {
-            return tag.compareTo(o.tag);
+        return compare(tag, tagNumber, o.tag, o.tagNumber);
+    }
+
+    /** ordering of TagInfos, which only depends on the tags */
+    public static int compareTags(String left, String right) {
+        return compare(left, parseOpt(left), right, parseOpt(right));
+    }
+
+    private static int compare(String left, Integer leftNumber, String right, Integer rightNumber) {
+        if (leftNumber != null && rightNumber != null) {
+            return leftNumber.compareTo(rightNumber);
+        } else if (leftNumber == null && rightNumber == null) {
+            return left.compareTo(right);
         } else {
-            return tagNumber != null ? -1 : 1;
+            return leftNumber != null ? -1 : 1;
         }
     }
 
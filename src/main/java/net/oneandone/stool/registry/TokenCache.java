@@ -0,0 +1,139 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide cache for registry api auth: the realm/service challenge per host, and bearer tokens per host, user
+ * and scope. Tokens are used until shortly before they expire according to their expires_in, so alternating between
+ * repositories does not re-authenticate each time. Safe to use from concurrent requests.
+ */
+public class TokenCache {
+    public static final TokenCache INSTANCE = new TokenCache(System::currentTimeMillis);
+
+    /** token spec: "If omitted, the default is 60 seconds" */
+    public static final int DEFAULT_EXPIRES_IN = 60;
+
+    /** stop using tokens this many millis before they expire, to cover clock skew and request latency */
+    private static final long MARGIN = 10_000;
+
+    public static class Challenge {
+        public final String realm;
+        public final String service;
+
+        public Challenge(String realm, String service) {
+            this.realm = realm;
+            this.service = service;
+        }
+    }
+
+    private static class Token {
+        private final String token;
+        private final long expires;
+
+        Token(String token, long expires) {
+            this.token = token;
+            this.expires = expires;
+        }
+    }
+
+    private final LongSupplier clock;
+
+    /** maps hosts to challenges */
+    private final Map<String, Challenge> challenges;
+
+    /** maps keys to tokens */
+    private final Map<String, Token> tokens;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    TokenCache(LongSupplier clock) {
+        this.clock = clock;
+        this.challenges = new ConcurrentHashMap<>();
+        this.tokens = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public static String key(String host, String username, String scope) {
+        return host + "|" + username + "|" + scope;
+    }
+
+    public Challenge challengeOpt(String host) {
+        return challenges.get(host);
+    }
+
+    public void putChallenge(String host, Challenge challenge) {
+        challenges.put(host, challenge);
+    }
+
+    /** @return null if there's no token or it's about to expire */
+    public String tokenOpt(String key) {
+        Token token;
+
+        token = tokens.get(key);
+        if (token != null && token.expires - MARGIN <= clock.getAsLong()) {
+            tokens.remove(key, token);
+            token = null;
+        }
+        if (token == null) {
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return token.token;
+        }
+    }
+
+    /** @param expiresIn seconds as reported by the token server; 0 or negative for the spec's default */
+    public void putToken(String key, String token, int expiresIn) {
+        tokens.put(key, new Token(token, clock.getAsLong() + (expiresIn > 0 ? expiresIn : DEFAULT_EXPIRES_IN) * 1000L));
+    }
+
+    /** Call when the registry rejects a token, e.g. because it was revoked */
+    public void invalidate(String key) {
+        tokens.remove(key);
+    }
+
+    //--
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public ObjectNode status(ObjectMapper json) {
+        ObjectNode result;
+
+        result = json.createObjectNode();
+        result.put("challenges", challenges.size());
+        result.put("tokens", tokens.size());
+        result.put("hits", hits());
+        result.put("misses", misses());
+        return result;
+    }
+}
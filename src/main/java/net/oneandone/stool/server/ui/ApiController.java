@@ -23,10 +23,15 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.cli.Caller;
 import net.oneandone.stool.cli.KubernetesClient;
+import net.oneandone.stool.core.FieldContext;
 import net.oneandone.stool.core.LocalSettings;
+import net.oneandone.stool.core.Predicate;
 import net.oneandone.stool.core.StageNotFoundException;
 import net.oneandone.stool.directions.DirectionsRef;
+import net.oneandone.stool.directions.ScriptCache;
 import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.registry.PortusIndex;
+import net.oneandone.stool.registry.TokenCache;
 import net.oneandone.stool.core.Stage;
 import net.oneandone.stool.server.users.User;
 import net.oneandone.stool.server.users.UserManager;
@@ -71,12 +76,14 @@ public class ApiController {
 
     private final LocalSettings globalSettings;
     private final UserManager globalUserManager;
+    private final StageCache cache;
     private final List<RequestSettings> pool;
 
     @Autowired
-    public ApiController(LocalSettings localSettings, UserManager userManager) {
+    public ApiController(LocalSettings localSettings, UserManager userManager, StageCache cache) {
         this.globalSettings = localSettings;
         this.globalUserManager = userManager;
+        this.cache = cache;
         this.pool = new ArrayList<>();  // starts empty, filled when giving back session
     }
 
@@ -91,6 +98,7 @@ public class ApiController {
     }
 
     public void closeSettings(RequestSettings settings) {
+        settings.chartkitReset();
         synchronized (pool) {
             if (pool.size() < POOL_SIZE) {
                 pool.add(settings);
@@ -112,6 +120,30 @@ public class ApiController {
                             null /* TODO */));
         }
 
+        /** served from cache if possible */
+        @Override
+        public List<Stage> list(Engine engine, Predicate predicate, Map<String, IOException> problems) throws IOException {
+            List<Stage> result;
+
+            result = cache.listOpt(predicate, problems);
+            return result != null ? result : super.list(engine, predicate, problems);
+        }
+
+        /** deployments and pods from cache if possible */
+        @Override
+        public FieldContext fieldContext(Engine engine) {
+            return cache.isFresh() ? new FieldContext(engine, cache.deployments(), cache.pods()) : super.fieldContext(engine);
+        }
+
+        /** served from cache if possible */
+        @Override
+        public Stage lookup(Engine engine, String name) throws IOException {
+            Stage result;
+
+            result = cache.lookupOpt(name);
+            return result != null ? result : super.lookup(engine, name);
+        }
+
         @Override
         public void close() {
             closeSettings(this);
@@ -175,6 +207,38 @@ public class ApiController {
         }
     }
 
+    /** streams one json object per stage as soon as it's published, with a diff or an error field */
+    @PostMapping("/publish")
+    public void publishAll(@RequestParam(value = "filter", required = false, defaultValue = "") String filter,
+                           @RequestParam(value = "directionsref", required = false) String directionsRefOpt,
+                           @RequestParam(value = "dryrun", required = false, defaultValue = "false") boolean dryrun,
+                           @RequestParam(value = "allow", required = false) String allow,
+                           @RequestParam(value = "stopOnFailure", required = false, defaultValue = "false") boolean stopOnFailure,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, String> values;
+        PrintWriter dest;
+
+        values = map(request, "value.");
+        try (RequestSettings settings = openSettings()) {
+            response.setContentType("application/x-ndjson");
+            dest = response.getWriter();
+            settings.client(request).publishAll(filter, dryrun, allow, directionsRefOpt == null ? null : DirectionsRef.parse(directionsRefOpt),
+                    values, stopOnFailure, (stage, diffOpt, errorOpt) -> {
+                        ObjectNode line;
+
+                        line = settings.json.createObjectNode();
+                        line.put("stage", stage);
+                        if (diffOpt != null) {
+                            line.set("diff", array(settings.json, diffOpt.toList()));
+                        } else {
+                            line.put("error", errorOpt);
+                        }
+                        dest.println(line);
+                        dest.flush();
+                    });
+        }
+    }
+
     @GetMapping("/stages//{stage}/await-available")
     public String awaitAvailable(@PathVariable(value = "stage") String stage, HttpServletRequest request) throws IOException {
         try (RequestSettings settings = openSettings()) {
@@ -232,6 +296,22 @@ public class ApiController {
         }
     }
 
+    @GetMapping("/cache")
+    public String cache() {
+        ObjectNode result;
+        ObjectNode scripts;
+
+        result = cache.status();
+        scripts = result.putObject("scripts");
+        scripts.put("size", ScriptCache.INSTANCE.size());
+        scripts.put("hits", ScriptCache.INSTANCE.hits());
+        scripts.put("misses", ScriptCache.INSTANCE.misses());
+        scripts.put("hitRatio", ScriptCache.INSTANCE.hitRatio());
+        result.set("portus", PortusIndex.status(globalSettings.json));
+        result.set("tokens", TokenCache.INSTANCE.status(globalSettings.json));
+        return result.toString();
+    }
+
     //--
 
     @PostMapping("/auth")
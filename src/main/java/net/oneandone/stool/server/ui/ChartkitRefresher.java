@@ -0,0 +1,65 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.server.ui;
+
+import net.oneandone.stool.core.LocalSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-fetches new chartkit versions, so requests don't wait for downloads; the first run loads the chartkit at startup.
+ * Runs on a thread of its own, because downloads can take minutes and must not delay the other scheduled tasks.
+ */
+@Component
+public class ChartkitRefresher implements InitializingBean, DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChartkitRefresher.class);
+
+    private final LocalSettings localSettings;
+    private final ScheduledExecutorService executor;
+
+    @Autowired
+    public ChartkitRefresher(LocalSettings localSettings) {
+        this.localSettings = localSettings;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "chartkit-refresh"));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.scheduleWithFixedDelay(this::refresh, 0, 60, TimeUnit.SECONDS);
+    }
+
+    private void refresh() {
+        try {
+            localSettings.chartkitRefresh();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("chartkit refresh failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
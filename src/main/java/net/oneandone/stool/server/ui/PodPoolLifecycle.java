@@ -0,0 +1,47 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.server.ui;
+
+import net.oneandone.stool.core.LocalSettings;
+import net.oneandone.stool.directions.PodPool;
+import net.oneandone.stool.kubernetes.Engine;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/** Enables chartkit pod pooling for the lifetime of the server and deletes idle pods when it stops */
+@Component
+public class PodPoolLifecycle implements InitializingBean, DisposableBean {
+    private final LocalSettings localSettings;
+
+    @Autowired
+    public PodPoolLifecycle(LocalSettings localSettings) {
+        this.localSettings = localSettings;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        PodPool.enable();
+    }
+
+    @Override
+    public void destroy() {
+        try (Engine engine = Engine.createCluster(localSettings.json)) {
+            PodPool.shutdown(engine);
+        }
+    }
+}
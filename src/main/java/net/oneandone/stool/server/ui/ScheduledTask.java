@@ -20,6 +20,7 @@ import net.oneandone.stool.core.LocalSettings;
 import net.oneandone.stool.kubernetes.Engine;
 import net.oneandone.stool.core.Stage;
 import net.oneandone.stool.core.Validation;
+import net.oneandone.stool.directions.PodPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,6 +42,16 @@ public class ScheduledTask {
         this.localSettings = localSettings;
     }
 
+    /** evicts idle chartkit pods even if no helm runs use the pool */
+    @Scheduled(fixedDelay = 60_000)
+    public void podPoolEvict() {
+        try (Engine engine = Engine.createCluster(localSettings.json)) {
+            PodPool.evictAll(engine);
+        } catch (RuntimeException e) {
+            LOGGER.warn("pod pool eviction failed: " + e.getMessage(), e);
+        }
+    }
+
     // second minute hour ...
     @Scheduled(cron = "0 4 2 * * *")
     public void validateAll() throws IOException, MessagingException {
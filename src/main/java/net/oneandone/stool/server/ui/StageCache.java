@@ -0,0 +1,337 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.server.ui;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.SharedInformerFactory;
+import net.oneandone.stool.core.LocalSettings;
+import net.oneandone.stool.core.Predicate;
+import net.oneandone.stool.core.Stage;
+import net.oneandone.stool.kubernetes.DeploymentInfo;
+import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.kubernetes.HelmRelease;
+import net.oneandone.stool.kubernetes.PodInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived in-memory index of all stages in the server's namespace, kept up to date by shared informers on helm release
+ * secrets, deployments and pods. Read-only requests are answered from memory; callers have to fall back to Kubernetes
+ * if the cache is not fresh.
+ */
+@Component
+public class StageCache implements InitializingBean, DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StageCache.class);
+
+    /** number of resyncs the cache may miss before it's considered stale */
+    private static final int STALE_RESYNCS = 3;
+
+    private final LocalSettings localSettings;
+    private final long resyncMillis;
+
+    private Engine engine;
+    private SharedInformerFactory factory;
+    private SharedIndexInformer<Secret> helmInformer;
+    private SharedIndexInformer<Deployment> deploymentInformer;
+    private SharedIndexInformer<Pod> podInformer;
+
+    /** stage name to stage; sorted by name */
+    private final Map<String, Stage> stages;
+    /** stage name to the name of the secret the stage was loaded from */
+    private final Map<String, String> secrets;
+    private final Map<String, IOException> problems;
+    private final Map<String, DeploymentInfo> deployments;
+    private final Map<String, PodInfo> pods;
+
+    private volatile long lastEvent;
+    private volatile long lastLag;
+    private final AtomicLong events;
+    private final AtomicLong hits;
+    private final AtomicLong fallbacks;
+
+    @Autowired
+    public StageCache(LocalSettings localSettings) {
+        this.localSettings = localSettings;
+        this.resyncMillis = localSettings.cacheResync * 1000L;
+        this.stages = new ConcurrentSkipListMap<>();
+        this.secrets = new ConcurrentHashMap<>();
+        this.problems = new ConcurrentHashMap<>();
+        this.deployments = new ConcurrentHashMap<>();
+        this.pods = new ConcurrentHashMap<>();
+        this.lastEvent = 0;
+        this.lastLag = -1;
+        this.events = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.fallbacks = new AtomicLong();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (resyncMillis <= 0) {
+            LOGGER.info("stage cache disabled");
+            return;
+        }
+        engine = Engine.createCluster(localSettings.json);
+        factory = engine.informerFactory();
+        helmInformer = engine.helmInformer(factory, resyncMillis);
+        helmInformer.addEventHandler(new Handler<>() {
+            @Override
+            void update(Secret secret, boolean added) {
+                updateRelease(secret, added);
+            }
+
+            @Override
+            void delete(Secret secret) {
+                removeRelease(secret);
+            }
+        });
+        deploymentInformer = engine.deploymentInformer(factory, resyncMillis);
+        deploymentInformer.addEventHandler(new Handler<>() {
+            @Override
+            void update(Deployment deployment, boolean added) {
+                deployments.put(deployment.getMetadata().getName(), DeploymentInfo.create(deployment));
+            }
+
+            @Override
+            void delete(Deployment deployment) {
+                deployments.remove(deployment.getMetadata().getName());
+            }
+        });
+        podInformer = engine.podInformer(factory, resyncMillis);
+        podInformer.addEventHandler(new Handler<>() {
+            @Override
+            void update(Pod pod, boolean added) {
+                pods.put(pod.getMetadata().getName(), PodInfo.create(pod));
+            }
+
+            @Override
+            void delete(Pod pod) {
+                pods.remove(pod.getMetadata().getName());
+            }
+        });
+        factory.startAllRegisteredInformers();
+        LOGGER.info("stage cache started, resync " + resyncMillis + " ms");
+    }
+
+    @Override
+    public void destroy() {
+        if (factory != null) {
+            factory.stopAllRegisteredInformers();
+            factory = null;
+        }
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+
+    //-- access
+
+    /** true if all informers have synced and an event was seen within the last resyncs */
+    public boolean isFresh() {
+        if (factory == null) {
+            return false;
+        }
+        if (!helmInformer.hasSynced() || !deploymentInformer.hasSynced() || !podInformer.hasSynced()) {
+            return false;
+        }
+        if (stages.isEmpty() && deployments.isEmpty() && pods.isEmpty()) {
+            return true; // nothing to resync, thus no events
+        }
+        return System.currentTimeMillis() - lastEvent <= STALE_RESYNCS * resyncMillis;
+    }
+
+    /** @return null if the cache is not fresh */
+    public List<Stage> listOpt(Predicate predicate, Map<String, IOException> problemsResult) throws IOException {
+        List<Stage> result;
+
+        if (!isFresh()) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        result = new ArrayList<>();
+        for (Stage stage : stages.values()) {
+            if (predicate.matches(stage)) {
+                result.add(stage);
+            }
+        }
+        problemsResult.putAll(problems);
+        return result;
+    }
+
+    /** @return null if the cache is not fresh or does not know the stage */
+    public Stage lookupOpt(String name) {
+        Stage result;
+
+        result = isFresh() ? stages.get(name) : null;
+        if (result == null) {
+            fallbacks.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    public Map<String, DeploymentInfo> deployments() {
+        return new HashMap<>(deployments);
+    }
+
+    public Map<String, PodInfo> pods() {
+        return new HashMap<>(pods);
+    }
+
+    public ObjectNode status() {
+        ObjectNode result;
+
+        result = localSettings.json.createObjectNode();
+        result.put("enabled", factory != null);
+        result.put("fresh", isFresh());
+        result.put("stages", stages.size());
+        result.put("problems", problems.size());
+        result.put("deployments", deployments.size());
+        result.put("pods", pods.size());
+        result.put("events", events.get());
+        result.put("hits", hits.get());
+        result.put("fallbacks", fallbacks.get());
+        result.put("ageMs", lastEvent == 0 ? -1 : System.currentTimeMillis() - lastEvent);
+        result.put("lagMs", lastLag);
+        return result;
+    }
+
+    //-- event handling; invoked by informer threads
+
+    private void updateRelease(Secret secret, boolean added) {
+        HelmRelease release;
+        Stage stage;
+
+        release = HelmRelease.create(localSettings.json, secret);
+        if (!"deployed".equals(secret.getMetadata().getLabels().get("status"))) {
+            removeRelease(secret);
+            return;
+        }
+        if ("stool".equals(release.name)) {
+            return; // optional, stool server is not required
+        }
+        if (added && helmInformer.hasSynced()) {
+            lastLag = lag(secret);
+        }
+        try {
+            stage = Stage.create(localSettings, release.name, release.read(), Stage.historyFromMap(release.annotations));
+        } catch (IOException e) {
+            LOGGER.error("cannot load stage " + release.name, e);
+            problems.put(release.name, e);
+            stages.remove(release.name);
+            secrets.put(release.name, release.secretName);
+            return;
+        }
+        problems.remove(release.name);
+        stages.put(release.name, stage);
+        secrets.put(release.name, release.secretName);
+    }
+
+    private void removeRelease(Secret secret) {
+        String name;
+
+        name = secret.getMetadata().getLabels().get("name");
+        // only remove if this secret is still the deployed one - helm marks the previous release as superseded *after*
+        // creating the new one
+        if (name != null && secrets.remove(name, secret.getMetadata().getName())) {
+            stages.remove(name);
+            problems.remove(name);
+        }
+    }
+
+    /** helm creates a new secret for every revision, so the creation timestamp is the time of the change */
+    private static long lag(Secret secret) {
+        try {
+            return System.currentTimeMillis() - Instant.parse(secret.getMetadata().getCreationTimestamp()).toEpochMilli();
+        } catch (DateTimeParseException | NullPointerException e) {
+            return -1;
+        }
+    }
+
+    private abstract class Handler<T extends HasMetadata> implements ResourceEventHandler<T> {
+        @Override
+        public void onAdd(T obj) {
+            event();
+            try {
+                update(obj, true);
+            } catch (RuntimeException e) {
+                LOGGER.error("cannot add " + obj.getMetadata().getName(), e);
+            }
+        }
+
+        @Override
+        public void onUpdate(T oldObj, T newObj) {
+            event();
+            if (same(oldObj, newObj)) {
+                return; // resync
+            }
+            try {
+                update(newObj, false);
+            } catch (RuntimeException e) {
+                LOGGER.error("cannot update " + newObj.getMetadata().getName(), e);
+            }
+        }
+
+        @Override
+        public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+            event();
+            try {
+                delete(obj);
+            } catch (RuntimeException e) {
+                LOGGER.error("cannot delete " + obj.getMetadata().getName(), e);
+            }
+        }
+
+        abstract void update(T obj, boolean added);
+        abstract void delete(T obj);
+
+        private void event() {
+            lastEvent = System.currentTimeMillis();
+            events.incrementAndGet();
+        }
+
+        private boolean same(T left, T right) {
+            String version;
+
+            version = left.getMetadata().getResourceVersion();
+            return version != null && version.equals(right.getMetadata().getResourceVersion());
+        }
+    }
+}
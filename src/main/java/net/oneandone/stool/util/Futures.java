@@ -0,0 +1,79 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Helpers for tasks run on executors */
+public final class Futures {
+    /**
+     * Waits for the task and rethrows its exception as is.
+     * @param timeoutSeconds 0 to wait forever; the task is cancelled when it times out
+     */
+    public static <T> T await(String what, Future<T> future, int timeoutSeconds) throws IOException {
+        Throwable cause;
+
+        try {
+            return timeoutSeconds > 0 ? future.get(timeoutSeconds, TimeUnit.SECONDS) : future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException(what + ": timeout after " + timeoutSeconds + " seconds");
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            } else if (cause instanceof Error error) {
+                throw error;
+            } else {
+                throw new IllegalStateException(what, cause);
+            }
+        }
+    }
+
+    /** @return task that runs with the logging context of the calling thread, e.g. the user of the request */
+    public static <T> Callable<T> withMdc(Callable<T> task) {
+        Map<String, String> context;
+
+        context = MDC.getCopyOfContextMap();
+        return () -> {
+            if (context != null) {
+                MDC.setContextMap(context);
+            }
+            try {
+                return task.call();
+            } finally {
+                MDC.clear();
+            }
+        };
+    }
+
+    private Futures() {
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Lets concurrently running threads share one output. A thread that called begin gets a line buffer of its own; its
+ * output reaches the target one complete line at a time, prefixed as specified. Other threads write through unchanged.
+ */
+public class LineWriter extends Writer {
+    private static class Line {
+        private final String prefix;
+        private final StringBuilder buffer;
+
+        Line(String prefix) {
+            this.prefix = prefix;
+            this.buffer = new StringBuilder();
+        }
+    }
+
+    private static final ThreadLocal<Line> LINES = new ThreadLocal<>();
+
+    /** buffers output of the current thread until end is called */
+    public static void begin(String prefix) {
+        LINES.set(new Line(prefix));
+    }
+
+    /** @return pending output of the current thread not terminated by a newline, prefixed; null if there's none */
+    public static String end() {
+        Line line;
+
+        line = LINES.get();
+        LINES.remove();
+        return line == null || line.buffer.length() == 0 ? null : line.prefix + line.buffer;
+    }
+
+    private final Writer target;
+
+    public LineWriter(Writer target) {
+        this.target = target;
+    }
+
+    @Override
+    public void write(char[] chars, int ofs, int len) throws IOException {
+        Line line;
+        int from;
+        int start;
+
+        line = LINES.get();
+        if (line == null) {
+            synchronized (lock) {
+                target.write(chars, ofs, len);
+            }
+            return;
+        }
+        start = 0;
+        from = line.buffer.length();
+        line.buffer.append(chars, ofs, len);
+        for (int i = from; i < line.buffer.length(); i++) {
+            if (line.buffer.charAt(i) == '\n') {
+                synchronized (lock) {
+                    target.write(line.prefix);
+                    target.append(line.buffer, start, i + 1);
+                    target.flush();
+                }
+                start = i + 1;
+            }
+        }
+        line.buffer.delete(0, start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            target.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Spaces out operations evenly, process-wide per key - e.g. to limit the load a bulk operation puts on a cluster. */
+public class RateLimiter {
+    private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    /** @return null if perMinute is 0, i.e. unlimited */
+    public static RateLimiter getOpt(String key, int perMinute) {
+        if (perMinute <= 0) {
+            return null;
+        }
+        return LIMITERS.computeIfAbsent(key + "|" + perMinute, k -> new RateLimiter(60_000L / perMinute));
+    }
+
+    private final long interval;
+    private long next;
+
+    RateLimiter(long interval) {
+        this.interval = interval;
+        this.next = 0;
+    }
+
+    /** blocks until the next operation may start */
+    public void acquire() throws InterruptedIOException {
+        long wait;
+
+        wait = reserve(System.currentTimeMillis());
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+    }
+
+    /** @return millis to wait before the reserved slot starts */
+    synchronized long reserve(long now) {
+        long start;
+
+        start = Math.max(now, next);
+        next = start + interval;
+        return start - now;
+    }
+}
@@ -26,7 +26,10 @@ import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
+import java.util.Collection;
 
 public final class Tar {
     public static FileNode toDir(World world, String tarStringOpt) throws IOException {
@@ -34,23 +37,72 @@ public final class Tar {
 
         result = world.getTemp().createTempDirectory();
         if (tarStringOpt != null) {
-            try (ByteArrayInputStream bytes = new ByteArrayInputStream(Base64.getDecoder().decode(tarStringOpt));
-                 GzipCompressorInputStream gz = new GzipCompressorInputStream(bytes);
-                 TarArchiveInputStream tar = new TarArchiveInputStream(gz)) {
-                extract(tar, result);
-            }
+            extract(tarStringOpt, result);
         }
         return result;
     }
 
+    /**
+     * Extracts into an existing directory, overwriting existing files. Tars may come from pods, so entries with absolute
+     * names or .. components, and entries to be written through a symbolic link, are rejected.
+     * @param tarString base64 encoded, line breaks are ok
+     */
+    public static void extract(String tarString, FileNode dest) throws IOException {
+        try (ByteArrayInputStream bytes = new ByteArrayInputStream(Base64.getMimeDecoder().decode(tarString));
+             GzipCompressorInputStream gz = new GzipCompressorInputStream(bytes);
+             TarArchiveInputStream tar = new TarArchiveInputStream(gz)) {
+            extract(tar, dest);
+        }
+    }
+
     private static void extract(TarArchiveInputStream src, FileNode dest) throws IOException {
+        FileNode file;
+
         for (TarArchiveEntry entry = src.getNextTarEntry(); entry != null; entry = src.getNextTarEntry()) {
+            file = resolve(dest, entry.getName());
+            if (file == null) {
+                continue;
+            }
             if (entry.isDirectory()) {
-                dest.join(entry.getName()).mkdirsOpt();
+                file.mkdirsOpt();
             } else {
-                dest.join(entry.getName()).copyFileFrom(src);
+                file.getParent().mkdirsOpt();
+                file.copyFileFrom(src);
+            }
+        }
+    }
+
+    /** @return null for the root directory itself */
+    private static FileNode resolve(FileNode dest, String name) throws IOException {
+        String relative;
+        Path current;
+        String[] segments;
+
+        if (name.startsWith("/")) {
+            throw new IOException("absolute path in tar: " + name);
+        }
+        relative = name;
+        while (relative.startsWith("./")) {
+            relative = relative.substring(2);
+        }
+        if (relative.endsWith("/")) {
+            relative = relative.substring(0, relative.length() - 1);
+        }
+        if (relative.isEmpty() || relative.equals(".")) {
+            return null;
+        }
+        current = dest.toPath();
+        segments = relative.split("/");
+        for (String segment : segments) {
+            if (segment.equals("..")) {
+                throw new IOException("invalid path in tar: " + name);
+            }
+            current = current.resolve(segment);
+            if (Files.isSymbolicLink(current)) {
+                throw new IOException("path in tar leads through a symbolic link: " + name);
             }
         }
+        return dest.join(relative);
     }
 
     public static String fromDirOpt(FileNode dir) throws IOException {
@@ -71,6 +123,24 @@ public final class Tar {
         return Base64.getEncoder().encodeToString(bytes.toByteArray());
     }
 
+    /** @param paths files relative to root */
+    public static String fromFiles(FileNode root, Collection<String> paths) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileNode file;
+
+        try (GzipCompressorOutputStream gz = new GzipCompressorOutputStream(bytes);
+             TarArchiveOutputStream dest = new TarArchiveOutputStream(gz)) {
+            dest.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (String path : paths) {
+                file = root.join(path);
+                dest.putArchiveEntry(new TarArchiveEntry(file.toPath().toFile(), path));
+                file.copyFileTo(dest);
+                dest.closeArchiveEntry();
+            }
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
     private static void add(FileNode root, FileNode current, TarArchiveOutputStream dest) throws IOException {
         dest.putArchiveEntry(new TarArchiveEntry(current.toPath().toFile(), current.getRelative(root)));
         if (current.isFile()) {
@@ -16,7 +16,7 @@
 package net.oneandone.stool.core;
 
 import net.oneandone.stool.directions.Chartkit;
-import net.oneandone.stool.kubernetes.Engine;
+import net.oneandone.stool.registry.ImageExtractor;
 import net.oneandone.stool.registry.PortusRegistry;
 import net.oneandone.stool.util.Json;
 import net.oneandone.stool.util.ITProperties;
@@ -35,6 +35,8 @@ public class HelmIT {
         World world;
         PortusRegistry portus;
         FileNode root;
+        String tag;
+        FileNode dir;
 
         world = World.create();
         p = ITProperties.load(world);
@@ -42,8 +44,9 @@ public class HelmIT {
             root = world.getTemp().createTempDirectory();
             root.deleteDirectory(); // I just need a unix name ...
             portus = PortusRegistry.create(Json.newJson(), world, p.portus.resolve("/").toString(), null);
-            Chartkit.resolve(portus, Engine.createLocal(Json.newJson(), p.kubernetes), p.chartkit, root);
-            assertTrue(root.isDirectory());
+            tag = Chartkit.latest(portus, p.chartkit);
+            dir = Chartkit.download(new ImageExtractor(portus, root.join("layers")), p.chartkit, tag, root.join("chartkits"));
+            assertTrue(dir.join("chartkit.yaml").isFile());
         }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Filters 10k synthetic stages; run with main, not part of the regular test run. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredicateParserBenchmark {
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PredicateParserBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "stage4711", "name=stage47*", "metadataContact=*@example.com+replicas!=0", "replicas=3,name=*11,metadataContact=x*" })
+    public String filter;
+
+    private List<Stage> stages;
+
+    @Setup
+    public void setup() {
+        stages = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            stages.add(PredicateParserTest.stage("stage" + i,
+                    "metadataContact", "user" + (i % 100) + "@example.com", "replicas", Integer.toString(i % 3)));
+        }
+    }
+
+    @Benchmark
+    public int parseAndFilter() throws IOException {
+        Predicate predicate;
+        int count;
+
+        predicate = new PredicateParser(null).parse(filter);
+        count = 0;
+        for (Stage stage : stages) {
+            if (predicate.matches(stage)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
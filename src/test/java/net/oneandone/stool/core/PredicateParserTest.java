@@ -0,0 +1,117 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.stool.directions.Variable;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PredicateParserTest {
+    public static Stage stage(String name, String... variables) {
+        Map<String, Variable> map;
+        ObjectNode info;
+
+        map = new LinkedHashMap<>();
+        for (int i = 0; i < variables.length; i += 2) {
+            map.put(variables[i], new Variable(variables[i], false, "", variables[i + 1]));
+        }
+        info = new ObjectMapper().createObjectNode();
+        info.put("last_deployed", "2021-04-01T10:00:00");
+        info.put("first_deployed", "2021-03-01T10:00:00");
+        return new Stage(null, name, null, null, map, info, new ArrayList<>());
+    }
+
+    private final PredicateParser parser = new PredicateParser(null);
+
+    @Test
+    public void empty() throws IOException {
+        assertTrue(parser.parse("").matches(stage("any")));
+    }
+
+    @Test
+    public void name() throws IOException {
+        assertTrue(parser.parse("foo").matches(stage("foo")));
+        assertTrue(parser.parse("FOO").matches(stage("foo")));
+        assertFalse(parser.parse("bar").matches(stage("foo")));
+        assertTrue(parser.parse("bar,foo").matches(stage("foo")));
+    }
+
+    @Test
+    public void field() throws IOException {
+        assertTrue(parser.parse("name=foo").matches(stage("foo")));
+        assertTrue(parser.parse("name!=bar").matches(stage("foo")));
+        assertTrue(parser.parse("last-deployed=2021-04*").matches(stage("foo")));
+        assertFalse(parser.parse("first-deployed=2021-04*").matches(stage("foo")));
+    }
+
+    @Test
+    public void variable() throws IOException {
+        Stage stage;
+
+        stage = stage("foo", "metadataContact", "someone@example.com", "replicas", "2");
+        assertTrue(parser.parse("metadataContact=someone@example.com").matches(stage));
+        assertTrue(parser.parse("metadataContact=someone*").matches(stage));
+        assertTrue(parser.parse("metadataContact=*example.com").matches(stage));
+        assertTrue(parser.parse("metadataContact=*@*").matches(stage));
+        assertFalse(parser.parse("metadataContact=*nobody*").matches(stage));
+        assertTrue(parser.parse("metadataContact!=*nobody*").matches(stage));
+        assertTrue(parser.parse("replicas=2+name=foo").matches(stage));
+        assertFalse(parser.parse("replicas=2+name=bar").matches(stage));
+        assertTrue(parser.parse("replicas=3,name=foo").matches(stage));
+    }
+
+    @Test
+    public void selector() {
+        assertEquals(Map.of("name", "foo"), parser.parse("FOO").selector());
+        assertEquals(Map.of("name", "foo", "stool-metadataContact", "joe"), parser.parse("foo+metadataContact=joe").selector());
+        assertEquals(Map.of(), parser.parse("name=foo*").selector());
+        assertEquals(Map.of(), parser.parse("metadataContact=joe@example.com").selector());
+        assertEquals(Map.of(), parser.parse("metadataComment=joe").selector());
+        assertEquals(Map.of(), parser.parse("foo,bar").selector());
+    }
+
+    @Test
+    public void matchesLabels() {
+        Map<String, String> labels;
+
+        labels = Map.of("name", "foo", "stool-labels", "1", "stool-metadataContact", "joe");
+        assertEquals(Boolean.TRUE, parser.parse("name=f*").matchesLabels(labels));
+        assertEquals(Boolean.FALSE, parser.parse("bar").matchesLabels(labels));
+        assertEquals(Boolean.TRUE, parser.parse("bar,foo").matchesLabels(labels));
+        assertEquals(Boolean.FALSE, parser.parse("metadataContact=jo+name=bar").matchesLabels(labels));
+        assertEquals(Boolean.TRUE, parser.parse("metadataContact=jo*").matchesLabels(labels));
+        assertNull(parser.parse("metadataExpire=never").matchesLabels(labels));
+        assertNull(parser.parse("metadataContact=joe").matchesLabels(Map.of("name", "foo")));
+        assertNull(parser.parse("bar,replicas=1").matchesLabels(labels));
+    }
+
+    @Test
+    public void unknownVariable() {
+        assertThrows(PredicateParser.PredicateException.class, () -> parser.parse("nosuchvariable=1").matches(stage("foo")));
+    }
+}
@@ -16,13 +16,23 @@
 package net.oneandone.stool.directions;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import net.oneandone.inline.ArgumentException;
 import net.oneandone.stool.util.Json;
 import net.oneandone.sushi.fs.World;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ChartkitTest {
     private static final World WORLD = World.createMinimal();
@@ -35,4 +45,89 @@ public class ChartkitTest {
         chartkit = Chartkit.load(YAML, WORLD.guessProjectHome(getClass()).join("src/test/data/chartkit").checkDirectory(), "", null);
         assertEquals(2, chartkit.directionsSize());
     }
+
+    @Test
+    public void withEnvironment() throws IOException {
+        Chartkit chartkit;
+        Chartkit overridden;
+
+        chartkit = Chartkit.load(YAML, WORLD.guessProjectHome(getClass()).join("src/test/data/chartkit").checkDirectory(), "", null);
+        assertSame(chartkit, chartkit.withEnvironment(Collections.emptyMap()));
+        assertThrows(ArgumentException.class, () -> chartkit.withEnvironment(Map.of("nosuchvariable", "x")));
+    }
+
+    @Test
+    public void cache() throws IOException {
+        ChartkitCache cache;
+        List<String> versions;
+        List<String> loaded;
+        ChartkitCache.Loader loader;
+
+        cache = new ChartkitCache();
+        versions = new ArrayList<>(List.of("1", "1", "2"));
+        loaded = new ArrayList<>();
+        loader = new ChartkitCache.Loader() {
+            @Override
+            public String resolve() throws IOException {
+                if (versions.isEmpty()) {
+                    throw new IOException("registry down");
+                }
+                return versions.remove(0);
+            }
+
+            @Override
+            public Chartkit load(String version) {
+                loaded.add(version);
+                return new Chartkit(version, null, WORLD.getTemp());
+            }
+
+            @Override
+            public void prune(Set<String> used) {
+            }
+        };
+        assertEquals("1", cache.get("kit", loader).getVersion());
+        assertFalse(cache.refresh("kit", loader));
+        assertEquals("1", cache.get("kit", loader).getVersion());
+        assertTrue(cache.refresh("kit", loader));
+        assertEquals("2", cache.get("kit", loader).getVersion());
+        assertThrows(IOException.class, () -> cache.refresh("kit", loader));
+        assertEquals("2", cache.get("kit", loader).getVersion());
+        assertEquals(List.of("1", "2"), loaded);
+    }
+
+    @Test
+    public void leases() throws IOException {
+        ChartkitCache cache;
+        List<String> versions;
+        List<Set<String>> pruned;
+        ChartkitCache.Loader loader;
+        Chartkit old;
+
+        cache = new ChartkitCache();
+        versions = new ArrayList<>(List.of("1", "2", "2"));
+        pruned = new ArrayList<>();
+        loader = new ChartkitCache.Loader() {
+            @Override
+            public String resolve() {
+                return versions.remove(0);
+            }
+
+            @Override
+            public Chartkit load(String version) {
+                return new Chartkit(version, null, WORLD.getTemp());
+            }
+
+            @Override
+            public void prune(Set<String> used) {
+                pruned.add(Set.copyOf(used));
+            }
+        };
+        old = cache.get("kit", loader);
+        assertEquals(1, cache.leases("kit", "1"));
+        assertTrue(cache.refresh("kit", loader));
+        cache.release("kit", old.getVersion());
+        assertEquals(0, cache.leases("kit", "1"));
+        assertFalse(cache.refresh("kit", loader));
+        assertEquals(List.of(Set.of("1"), Set.of("1", "2"), Set.of("2")), pruned);
+    }
 }
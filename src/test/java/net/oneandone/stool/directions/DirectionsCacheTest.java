@@ -0,0 +1,92 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.oneandone.stool.util.Json;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DirectionsCacheTest {
+    private static final World WORLD = World.createMinimal();
+    private static final ObjectMapper JSON = Json.newJson();
+
+    @Test
+    public void roundtrip() throws IOException {
+        FileNode dir;
+        DirectionsCache cache;
+        DirectionsCache.Entry entry;
+
+        dir = WORLD.getTemp().createTempDirectory();
+        cache = new DirectionsCache(dir, 10);
+        assertNull(cache.getOpt("sha256:1"));
+        cache.put("sha256:1", "host/repo:1", "someone", directions("a"));
+        assertEquals("a", cache.getOpt("sha256:1").directions().get("DIRECTIONS").asText());
+
+        // another process sees what's on disk
+        entry = new DirectionsCache(dir, 10).getOpt("sha256:1");
+        assertEquals("host/repo:1", entry.image);
+        assertEquals("someone", entry.author);
+        assertEquals("a", entry.directions().get("DIRECTIONS").asText());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void copies() throws IOException {
+        DirectionsCache cache;
+
+        cache = new DirectionsCache(WORLD.getTemp().createTempDirectory(), 10);
+        cache.put("sha256:1", "host/repo:1", null, directions("a"));
+        cache.getOpt("sha256:1").directions().remove("DIRECTIONS");
+        assertEquals("a", cache.getOpt("sha256:1").directions().get("DIRECTIONS").asText());
+        assertNull(cache.getOpt("sha256:1").author);
+    }
+
+    @Test
+    public void prune() throws IOException {
+        FileNode dir;
+        DirectionsCache cache;
+
+        dir = WORLD.getTemp().createTempDirectory();
+        cache = new DirectionsCache(dir, 2);
+        cache.put("sha256:1", "host/repo:1", null, directions("a"));
+        dir.join("sha256-1.json").setLastModified(1000_000);
+        cache.put("sha256:2", "host/repo:2", null, directions("b"));
+        dir.join("sha256-2.json").setLastModified(2000_000);
+        cache.put("sha256:3", "host/repo:3", null, directions("c"));
+        assertEquals(2, cache.list().size());
+        assertEquals("sha256:3", cache.list().get(0).digest);
+        assertNull(cache.getOpt("sha256:1"));
+        assertEquals("b", cache.getOpt("sha256:2").directions().get("DIRECTIONS").asText());
+    }
+
+    private static ObjectNode directions(String subject) {
+        ObjectNode result;
+
+        result = JSON.createObjectNode();
+        result.put("DIRECTIONS", subject);
+        result.put("image", "host/repo");
+        return result;
+    }
+}
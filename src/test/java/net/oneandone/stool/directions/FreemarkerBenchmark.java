@@ -0,0 +1,75 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Evaluates a chain of directions, each referencing its predecessor; run with main, not part of the regular test run. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreemarkerBenchmark {
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FreemarkerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "10", "100", "300" })
+    public int count;
+
+    private Collection<Direction> directions;
+
+    @Setup
+    public void setup() {
+        List<String> nameValues;
+
+        nameValues = new ArrayList<>();
+        nameValues.add("d0");
+        nameValues.add("env.MOD");
+        for (int i = 1; i < count; i++) {
+            nameValues.add("d" + i);
+            nameValues.add("direction.d" + (i - 1) + " + stool.stage?substring(0, 1)");
+        }
+        directions = Directions.forTest("benchmark", nameValues.toArray(new String[0])).directions.values();
+    }
+
+    @Benchmark
+    public Map<String, String> eval() {
+        return FreemarkerTest.freemarker("MOD", "a").eval(new HashMap<>(), directions, null, null);
+    }
+}
@@ -30,8 +30,10 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class FreemarkerTest {
@@ -70,6 +72,18 @@ public class FreemarkerTest {
         }
     }
 
+    @Test
+    public void errorPosition() {
+        for (String name : new String[] { "first", "second" }) {
+            try {
+                freemarker().eval(name, "${env.NOT_FOUND}");
+                fail();
+            } catch (ArgumentException e) {
+                assertEquals(name, ((InvalidReferenceException) e.getCause()).getTemplateSourceName());
+            }
+        }
+    }
+
     @Test
     public void envNotFoundDefault() {
         assertEquals("x", freemarker().eval("${env.NOT_FOUND!'x'}"));
@@ -100,6 +114,61 @@ public class FreemarkerTest {
         }
     }
 
+    @Test
+    public void directionsCycle() {
+        Directions directions;
+
+        directions = Directions.forTest("name", "one", "direction.two", "two", "direction['three']", "three", "direction.one + 'x'");
+        try {
+            freemarker().eval(new HashMap<>(), directions.directions.values(), null, null);
+            fail();
+        } catch (ArgumentException e) {
+            assertEquals("invalid recursion on direction one: one -> two -> three -> one", e.getMessage());
+        }
+    }
+
+    @Test
+    public void directionsRuntimeCycleParallel() {
+        Directions directions;
+        Freemarker parallel;
+
+        directions = Directions.forTest("name", "one", "direction['t' + 'wo']", "two", "direction['o' + 'ne']");
+        parallel = new Freemarker(Strings.toMap("MOD", "a"), "stage", "localhost", 4);
+        for (int i = 0; i < 10; i++) {
+            try {
+                parallel.eval(new HashMap<>(), directions.directions.values(), null, null);
+                fail();
+            } catch (ArgumentException e) {
+                assertTrue(e.getMessage().startsWith("invalid recursion on direction "), e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void directionsParallel() {
+        Directions directions;
+        Map<String, String> expected;
+        Freemarker parallel;
+
+        directions = Directions.forTest("name",
+                "all", "direction.left + direction.right",
+                "left", "direction.base + 'l'",
+                "right", "direction.base + 'r'",
+                "base", "env.MOD",
+                "other", "'o'");
+        expected = Strings.toMap("all", "alar", "left", "al", "right", "ar", "base", "a", "other", "o");
+        assertEquals(expected, freemarker().eval(new HashMap<>(), directions.directions.values(), null, null));
+        parallel = new Freemarker(Strings.toMap("MOD", "a"), "stage", "localhost", 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected, parallel.eval(new HashMap<>(), directions.directions.values(), null, null));
+        }
+    }
+
+    @Test
+    public void references() {
+        assertEquals(Set.of("a", "b-c"), DirectionGraph.references(new Direction("x", "direction.a + direction[\"b-c\"] + mydirection.d")));
+    }
+
     @Test
     public void script() throws IOException {
         List<Script> scripts;
@@ -0,0 +1,83 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.inline.ArgumentException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PodPoolTest {
+    @Test
+    public void disabled() {
+        PodPool.enable();
+        assertNull(PodPool.getOpt(0, 0, 300));
+        assertNotNull(PodPool.getOpt(1, 2, 300));
+        assertSame(PodPool.getOpt(1, 2, 300), PodPool.getOpt(1, 2, 300));
+    }
+
+    @Test
+    public void invalid() {
+        assertThrows(ArgumentException.class, () -> new PodPool(3, 2, 300));
+    }
+
+    @Test
+    public void idle() {
+        PodPool pool;
+        List<PodPool.Entry> lst;
+
+        pool = new PodPool(1, 5, 10);
+        pool.add("k", new PodPool.Entry("ns", "a", 0), 0);
+        pool.add("k", new PodPool.Entry("ns", "b", 0), 5_000);
+        pool.add("k", new PodPool.Entry("ns", "c", 0), 10_000);
+        lst = pool.evictable("ns", 14_000);
+        assertEquals(1, lst.size());
+        assertEquals("a", lst.get(0).name);
+        lst = pool.evictable("ns", 100_000);
+        assertEquals(1, lst.size());
+        assertEquals("b", lst.get(0).name);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void maxAge() {
+        PodPool pool;
+        List<PodPool.Entry> lst;
+
+        pool = new PodPool(2, 5, 10);
+        pool.add("k", new PodPool.Entry("ns", "old", 0), PodPool.MAX_AGE * 1000L);
+        pool.add("k", new PodPool.Entry("ns", "young", 1000_000), PodPool.MAX_AGE * 1000L);
+        lst = pool.evictable("ns", PodPool.MAX_AGE * 1000L);
+        assertEquals(1, lst.size());
+        assertEquals("old", lst.get(0).name);
+    }
+
+    @Test
+    public void otherNamespace() {
+        PodPool pool;
+
+        pool = new PodPool(0, 5, 10);
+        pool.add("k", new PodPool.Entry("ns", "a", 0), 0);
+        assertEquals(0, pool.evictable("other", 100_000).size());
+        assertEquals(1, pool.evictable("ns", 100_000).size());
+    }
+}
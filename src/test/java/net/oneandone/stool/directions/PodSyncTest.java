@@ -0,0 +1,67 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PodSyncTest {
+    private static final World WORLD = World.createMinimal();
+
+    @Test
+    public void hashes() throws IOException {
+        FileNode dir;
+        Map<String, String> map;
+
+        dir = WORLD.getTemp().createTempDirectory();
+        dir.join("script").mkdir().join("file").writeString("hello");
+        dir.join("empty").mkdir();
+        map = PodSync.hashes(dir);
+        assertEquals(1, map.size());
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", map.get("script/file"));
+    }
+
+    @Test
+    public void parseHashes() throws IOException {
+        Map<String, String> map;
+
+        assertEquals(0, PodSync.parseHashes("").size());
+        map = PodSync.parseHashes("abc  ./a/b\ndef  ./with space\n");
+        assertEquals(Map.of("a/b", "abc", "with space", "def"), map);
+    }
+
+    @Test
+    public void diff() {
+        Map<String, String> known;
+        Map<String, String> current;
+
+        known = Map.of("same", "1", "modified", "2", "removed", "3");
+        current = Map.of("same", "1", "modified", "x", "added", "4");
+        assertEquals(List.of("added", "modified"), sorted(PodSync.changed(known, current)));
+        assertEquals(List.of("removed"), PodSync.removed(known, current));
+    }
+
+    private static List<String> sorted(List<String> lst) {
+        return lst.stream().sorted().toList();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.directions;
+
+import net.oneandone.inline.ArgumentException;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ScriptCacheTest {
+    private static final World WORLD = World.createMinimal();
+
+    @Test
+    public void ttl() {
+        ScriptCache cache;
+
+        cache = new ScriptCache(10);
+        assertEquals(-1, cache.hitRatio());
+        assertNull(cache.getOpt("k", 0));
+        cache.put("k", "out", null, 10, 0);
+        assertEquals("out", cache.getOpt("k", 9_999).output);
+        assertNull(cache.getOpt("k", 10_000));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void lru() {
+        ScriptCache cache;
+
+        cache = new ScriptCache(2);
+        cache.put("a", "1", null, 10, 0);
+        cache.put("b", "2", null, 10, 0);
+        cache.getOpt("a", 0);
+        cache.put("c", "3", null, 10, 0);
+        assertEquals("1", cache.getOpt("a", 0).output);
+        assertNull(cache.getOpt("b", 0));
+        assertEquals("3", cache.getOpt("c", 0).output);
+    }
+
+    @Test
+    public void key() throws IOException {
+        Script script;
+        FileNode storage;
+        String key;
+
+        script = Script.forTest(WORLD, "echo hi").get(0);
+        storage = WORLD.getTemp().createTempDirectory();
+        key = ScriptCache.key(script, List.of("a"), Map.of("X", "1"), storage);
+        assertEquals(key, ScriptCache.key(script, List.of("a"), Map.of("X", "1"), storage));
+        assertNotEquals(key, ScriptCache.key(script, List.of("a", ""), Map.of("X", "1"), storage));
+        assertNotEquals(key, ScriptCache.key(script, List.of("a"), Map.of("X", "2"), storage));
+        storage.join(script.name).mkdir().join("file").writeString("stored");
+        assertNotEquals(key, ScriptCache.key(script, List.of("a"), Map.of("X", "1"), storage));
+        script.file.writeString("echo changed");
+        assertNotEquals(key, ScriptCache.key(script, List.of("a"), Map.of("X", "1"), storage));
+    }
+
+    @Test
+    public void unknownScript() throws IOException {
+        FileNode dir;
+
+        dir = WORLD.getTemp().createTempDirectory();
+        dir.join("known.sh").writeString("echo");
+        assertEquals(60, Script.scanOpt(dir, Map.of("known", 60)).get(0).cacheSeconds);
+        assertThrows(ArgumentException.class, () -> Script.scanOpt(dir, Map.of("unknown", 60)));
+    }
+
+    @Test
+    public void replayStorage() throws IOException {
+        FileNode dir;
+        Script script;
+        FileNode first;
+        FileNode second;
+        String output;
+        long hits;
+
+        dir = WORLD.getTemp().createTempDirectory();
+        dir.join("cert.sh").writeString("#!/bin/sh\nif [ ! -f \"$1/cert\" ]; then echo $$ > \"$1/cert\"; fi\ncat \"$1/cert\"\n")
+                .setPermissions("rwxr-xr-x");
+        script = new Script("cert", dir.join("cert.sh"), 60);
+        first = WORLD.getTemp().createTempDirectory();
+        output = new ProcessExecutor(Map.of(), first).exec(script, List.of(Freemarker.STORAGE));
+        assertEquals(output, first.join("cert/cert").readString());
+
+        // same storage: the output is cached, the storage replayed
+        second = WORLD.getTemp().createTempDirectory();
+        assertEquals(output, new ProcessExecutor(Map.of(), second).exec(script, List.of(Freemarker.STORAGE)));
+        assertEquals(output, second.join("cert/cert").readString());
+
+        // storage written by the script: cached as well
+        hits = ScriptCache.INSTANCE.hits();
+        assertEquals(output, new ProcessExecutor(Map.of(), first).exec(script, List.of(Freemarker.STORAGE)));
+        assertEquals(hits + 1, ScriptCache.INSTANCE.hits());
+    }
+}
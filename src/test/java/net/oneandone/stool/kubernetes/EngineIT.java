@@ -18,7 +18,6 @@ package net.oneandone.stool.kubernetes;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.oneandone.stool.util.ITProperties;
 import net.oneandone.sushi.fs.World;
-import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.util.Strings;
 import org.junit.jupiter.api.Test;
 
@@ -47,43 +46,6 @@ public class EngineIT {
         return Engine.createLocal(new ObjectMapper(), ITProperties.load(WORLD).kubernetes);
     }
 
-    @Test
-    public void imageDownload() throws IOException {
-        FileNode tmp;
-
-        try (Engine engine = create()) {
-            tmp = WORLD.getTemp().createTempDirectory().deleteDirectory();
-            engine.imageDownload("debian:buster-slim", "/etc", tmp);
-            assertTrue(tmp.find("**/*").size() > 1);
-            tmp.deleteTree();
-        }
-    }
-
-    @Test
-    public void podUpAndDownload() throws IOException {
-        String podName;
-        FileNode in;
-        FileNode out;
-
-        in = WORLD.getTemp().createTempDirectory();
-        in.join("sub").mkdir().join("file").writeString("hello");
-        out = WORLD.getTemp().createTempDirectory().deleteDirectory();
-        podName = UUID.randomUUID().toString();
-        try (Engine engine = create()) {
-            engine.podCreate(podName, "debian:buster-slim", 0, "sleep", "3600");
-            try {
-                engine.podUpload(podName, Engine.CONTAINER_NAME, in, "/etc/demo");
-                engine.podExec(podName, Engine.CONTAINER_NAME, "touch", "/etc/demo/touched");
-                engine.podDownload(podName, Engine.CONTAINER_NAME, "/etc/demo", out);
-            } finally {
-                engine.podDelete(podName);
-            }
-        }
-        assertEquals("", out.join("touched").readString());
-        assertEquals("hello", out.join("sub/file").readString());
-    }
-
-
     @Test
     public void podExec() throws IOException {
         String name = UUID.randomUUID().toString();
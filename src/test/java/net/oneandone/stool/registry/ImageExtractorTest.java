@@ -0,0 +1,132 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageExtractorTest {
+    private static final World WORLD = World.createMinimal();
+
+    @Test
+    public void layers() throws IOException {
+        FileNode dest;
+        FileNode index;
+
+        dest = WORLD.getTemp().createTempDirectory();
+        index = WORLD.getTemp().createTempFile();
+        index.deleteFile();
+        assertTrue(ImageExtractor.extractLayer(layer(
+                "etc/passwd", "root",
+                "usr/local/chartkit/", null,
+                "usr/local/chartkit/chartkit.yaml", "environment:",
+                "usr/local/chartkit/scripts/old.sh", "echo old"), "usr/local/chartkit", dest, index));
+        assertEquals("environment:", dest.join("chartkit.yaml").readString());
+        assertEquals("echo old", dest.join("scripts/old.sh").readString());
+        assertFalse(dest.join("passwd").exists());
+        assertEquals(List.of("etc/passwd", "usr/local/chartkit", "usr/local/chartkit/chartkit.yaml", "usr/local/chartkit/scripts/old.sh"),
+                index.readLines());
+
+        assertTrue(ImageExtractor.extractLayer(layer(
+                "./usr/local/chartkit/scripts/.wh.old.sh", "",
+                "./usr/local/chartkit/scripts/new.sh", "echo new"), "usr/local/chartkit", dest, null));
+        assertFalse(dest.join("scripts/old.sh").exists());
+        assertEquals("echo new", dest.join("scripts/new.sh").readString());
+
+        assertFalse(ImageExtractor.extractLayer(layer(
+                "usr/local/.wh..wh..opq", ""), "usr/local/chartkit", dest, null));
+        assertEquals(0, dest.list().size());
+    }
+
+    @Test
+    public void dotDot() throws IOException {
+        FileNode dest;
+
+        dest = WORLD.getTemp().createTempDirectory().join("dest").mkdir();
+        assertThrows(IOException.class, () -> ImageExtractor.extractLayer(layer(
+                "usr/local/chartkit/../../../evil", "x"), "usr/local/chartkit", dest, null));
+        assertFalse(dest.getParent().join("evil").exists());
+    }
+
+    @Test
+    public void throughSymlink() throws IOException {
+        FileNode dest;
+        FileNode outside;
+
+        dest = WORLD.getTemp().createTempDirectory();
+        outside = WORLD.getTemp().createTempDirectory();
+        assertThrows(IOException.class, () -> ImageExtractor.extractLayer(layer(
+                "usr/local/chartkit/x", "-> " + outside.getAbsolute(),
+                "usr/local/chartkit/x/foo", "evil"), "usr/local/chartkit", dest, null));
+        assertFalse(outside.join("foo").exists());
+        assertThrows(IOException.class, () -> ImageExtractor.extractLayer(layer(
+                "usr/local/chartkit/x/.wh.foo", ""), "usr/local/chartkit", dest, null));
+    }
+
+    @Test
+    public void relevant() {
+        assertTrue(ImageExtractor.relevant("usr/local/chartkit", List.of("etc/passwd", "usr/local/chartkit/chartkit.yaml")));
+        assertTrue(ImageExtractor.relevant("usr/local/chartkit", List.of("usr/local/.wh.chartkit")));
+        assertTrue(ImageExtractor.relevant("usr/local/chartkit", List.of("usr/.wh..wh..opq")));
+        assertFalse(ImageExtractor.relevant("usr/local/chartkit", List.of("etc/passwd", "usr/local", "usr/local/.wh.other")));
+        assertFalse(ImageExtractor.relevant("usr/local/chartkit", List.of("usr/local/chartkit2/file")));
+    }
+
+    /** @param namesAndContents content null for directories, "-&gt; target" for symbolic links */
+    private static ByteArrayInputStream layer(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes;
+        TarArchiveEntry entry;
+        byte[] data;
+
+        bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(bytes))) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                if (namesAndContents[i + 1] != null && namesAndContents[i + 1].startsWith("-> ")) {
+                    entry = new TarArchiveEntry(namesAndContents[i], TarConstants.LF_SYMLINK);
+                    entry.setLinkName(namesAndContents[i + 1].substring(3));
+                } else {
+                    entry = new TarArchiveEntry(namesAndContents[i]);
+                }
+                if (namesAndContents[i + 1] == null || entry.isSymbolicLink()) {
+                    tar.putArchiveEntry(entry);
+                } else {
+                    data = namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8);
+                    entry.setSize(data.length);
+                    tar.putArchiveEntry(entry);
+                    tar.write(data);
+                }
+                tar.closeArchiveEntry();
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
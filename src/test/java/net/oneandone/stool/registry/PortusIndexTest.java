@@ -0,0 +1,127 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.oneandone.stool.util.Json;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PortusIndexTest {
+    private static final ObjectMapper JSON = Json.newJson();
+
+    private long now = 0;
+
+    @Test
+    public void repositories() throws IOException {
+        PortusIndex index;
+        List<String> requests;
+        PortusIndex.Fetcher fetcher;
+
+        index = new PortusIndex(1000, () -> now);
+        requests = new ArrayList<>();
+        fetcher = (path, etag) -> {
+            requests.add(path + " " + etag);
+            if ("v1".equals(etag)) {
+                return new PortusIndex.Response(null, etag);
+            }
+            return new PortusIndex.Response("[{\"full_name\": \"a/b\", \"id\": 7}]", "v1");
+        };
+        assertEquals("7", index.repositories(JSON, fetcher).get("a/b"));
+        now = 999;
+        assertEquals("7", index.repositories(JSON, fetcher).get("a/b"));
+        now = 1000;
+        assertEquals("7", index.repositories(JSON, fetcher).get("a/b"));
+        index.invalidate(null);
+        assertEquals("7", index.repositories(JSON, fetcher).get("a/b"));
+        assertEquals(List.of("api/v1/repositories null", "api/v1/repositories v1", "api/v1/repositories null"), requests);
+        assertEquals(1, index.hits());
+        assertEquals(2, index.misses());
+        assertEquals(1, index.revalidations());
+    }
+
+    @Test
+    public void tags() throws IOException {
+        PortusIndex index;
+        List<String> requests;
+        PortusIndex.Fetcher fetcher;
+
+        index = new PortusIndex(1000, () -> now);
+        requests = new ArrayList<>();
+        fetcher = (path, etag) -> {
+            requests.add(path);
+            return new PortusIndex.Response("[{\"name\": \"1.0\"}, {\"name\": \"2.0\"}]", null);
+        };
+        assertEquals(List.of("1.0", "2.0"), new ArrayList<>(index.tags(JSON, fetcher, "7").keySet()));
+        assertEquals("2.0", index.tags(JSON, fetcher, "7").get("2.0").get("name").asText());
+        index.invalidate("7");
+        index.tags(JSON, fetcher, "7");
+        assertEquals(List.of("api/v1/repositories/7/tags", "api/v1/repositories/7/tags"), requests);
+    }
+
+    @Test
+    public void slowFetch() throws Exception {
+        PortusIndex index;
+        CountDownLatch started;
+        CountDownLatch release;
+        List<String> requests;
+        PortusIndex.Fetcher fetcher;
+        CompletableFuture<Integer> slow;
+
+        index = new PortusIndex(1000, () -> now);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        requests = new ArrayList<>();
+        fetcher = (path, etag) -> {
+            synchronized (requests) {
+                requests.add(path);
+            }
+            if (path.contains("/7/")) {
+                started.countDown();
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new PortusIndex.Response("[{\"name\": \"1.0\"}]", null);
+        };
+        slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return index.tags(JSON, fetcher, "7").size();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // neither blocked by the pending request nor is the pending result published after invalidate
+        assertEquals(1, index.tags(JSON, fetcher, "8").size());
+        index.invalidate("7");
+        release.countDown();
+        assertEquals(1, slow.get(10, TimeUnit.SECONDS));
+        index.tags(JSON, fetcher, "7");
+        assertEquals(List.of("api/v1/repositories/7/tags", "api/v1/repositories/8/tags", "api/v1/repositories/7/tags"), requests);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TagInfoTest {
+    @Test
+    public void compareTags() {
+        assertTrue(TagInfo.compareTags("10", "9") > 0);
+        assertTrue(TagInfo.compareTags("b", "a") > 0);
+        assertTrue(TagInfo.compareTags("latest", "100") > 0);
+        assertEquals(0, TagInfo.compareTags("1", "1"));
+    }
+
+    @Test
+    public void sameOrderAsInfos() {
+        List<TagInfo> infos;
+        List<String> tags;
+
+        infos = new ArrayList<>();
+        tags = new ArrayList<>();
+        for (String tag : List.of("2", "latest", "10", "1", "beta")) {
+            infos.add(TagInfo.create("sha256:" + tag, "host/repo:" + tag, tag, null, null, null));
+            tags.add(tag);
+        }
+        Collections.sort(infos);
+        tags.sort(TagInfo::compareTags);
+        for (int i = 0; i < tags.size(); i++) {
+            assertEquals(tags.get(i), infos.get(i).tag);
+        }
+    }
+}
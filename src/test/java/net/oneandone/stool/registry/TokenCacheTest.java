@@ -0,0 +1,85 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.registry;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TokenCacheTest {
+    private long now = 0;
+
+    @Test
+    public void expiresIn() {
+        TokenCache cache;
+        String key;
+
+        cache = new TokenCache(() -> now);
+        key = TokenCache.key("host", "user", "repository:a/b:*");
+        assertNull(cache.tokenOpt(key));
+        cache.putToken(key, "t1", 300);
+        now = 289_999;
+        assertEquals("t1", cache.tokenOpt(key));
+        now = 290_000;
+        assertNull(cache.tokenOpt(key));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void defaultExpiresIn() {
+        TokenCache cache;
+        String key;
+
+        cache = new TokenCache(() -> now);
+        key = TokenCache.key("host", "user", "repository:a/b:*");
+        cache.putToken(key, "t1", 0);
+        now = (TokenCache.DEFAULT_EXPIRES_IN - 10) * 1000L - 1;
+        assertEquals("t1", cache.tokenOpt(key));
+        now++;
+        assertNull(cache.tokenOpt(key));
+    }
+
+    @Test
+    public void scopes() {
+        TokenCache cache;
+        String a;
+        String b;
+
+        cache = new TokenCache(() -> now);
+        a = TokenCache.key("host", "user", "repository:a:*");
+        b = TokenCache.key("host", "user", "repository:b:*");
+        cache.putToken(a, "ta", 300);
+        cache.putToken(b, "tb", 300);
+        assertEquals("ta", cache.tokenOpt(a));
+        assertEquals("tb", cache.tokenOpt(b));
+        assertNull(cache.tokenOpt(TokenCache.key("host", "other", "repository:a:*")));
+        cache.invalidate(a);
+        assertNull(cache.tokenOpt(a));
+        assertEquals("tb", cache.tokenOpt(b));
+    }
+
+    @Test
+    public void challenge() {
+        TokenCache cache;
+
+        cache = new TokenCache(() -> now);
+        assertNull(cache.challengeOpt("host"));
+        cache.putChallenge("host", new TokenCache.Challenge("https://host/v2/token", "registry"));
+        assertEquals("registry", cache.challengeOpt("host").service);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FuturesTest {
+    @Test
+    public void mdc() throws IOException {
+        ExecutorService executor;
+
+        executor = Executors.newSingleThreadExecutor();
+        MDC.put("USER", "someone");
+        try {
+            assertEquals("someone", Futures.await("mdc", executor.submit(Futures.withMdc(() -> MDC.get("USER"))), 0));
+        } finally {
+            MDC.remove("USER");
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void exception() {
+        ExecutorService executor;
+
+        executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThrows(FileNotFoundException.class, () -> Futures.await("exception", executor.submit(() -> {
+                throw new FileNotFoundException("x");
+            }), 0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
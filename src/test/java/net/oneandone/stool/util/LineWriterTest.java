@@ -0,0 +1,65 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LineWriterTest {
+    @Test
+    public void unbuffered() {
+        StringWriter dest;
+        PrintWriter writer;
+
+        dest = new StringWriter();
+        writer = new PrintWriter(new LineWriter(dest));
+        writer.print("a");
+        assertEquals("a", dest.toString());
+    }
+
+    @Test
+    public void lines() throws InterruptedException {
+        StringWriter dest;
+        PrintWriter writer;
+        String[] rest;
+        Thread thread;
+
+        dest = new StringWriter();
+        writer = new PrintWriter(new LineWriter(dest));
+        rest = new String[1];
+        LineWriter.begin("{a} ");
+        try {
+            writer.print("1");
+            thread = new Thread(() -> {
+                LineWriter.begin("{b} ");
+                writer.print("x\ny\nz");
+                rest[0] = LineWriter.end();
+            });
+            thread.start();
+            thread.join();
+            writer.print("2\n3\n");
+        } finally {
+            assertNull(LineWriter.end());
+        }
+        assertEquals("{b} z", rest[0]);
+        assertEquals("{b} x\n{b} y\n{a} 12\n{a} 3\n", dest.toString());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.stool.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RateLimiterTest {
+    @Test
+    public void reserve() {
+        RateLimiter limiter;
+
+        limiter = new RateLimiter(1000);
+        assertEquals(0, limiter.reserve(10_000));
+        assertEquals(1000, limiter.reserve(10_000));
+        assertEquals(1500, limiter.reserve(10_500));
+        assertEquals(0, limiter.reserve(20_000));
+        assertEquals(999, limiter.reserve(20_001));
+    }
+
+    @Test
+    public void unlimited() {
+        assertNull(RateLimiter.getOpt("ctx", 0));
+    }
+}
@@ -26,6 +26,8 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TarTest {
@@ -55,4 +57,34 @@ public class TarTest {
         got = Tar.toDir(WORLD, str);
         assertEquals("hello", got.join("dir/file").readString());
     }
+
+    @Test
+    public void files() throws IOException {
+        FileNode root;
+        FileNode dest;
+
+        root = WORLD.getTemp().createTempDirectory();
+        root.join("a").mkdir().join("file").writeString("hello");
+        root.join("b").writeString("skipped");
+        dest = WORLD.getTemp().createTempDirectory();
+        dest.join("c").writeString("kept");
+        Tar.extract(Tar.fromFiles(root, List.of("a/file")), dest);
+        assertEquals("hello", dest.join("a/file").readString());
+        assertEquals("kept", dest.join("c").readString());
+        assertEquals(2, dest.list().size());
+    }
+
+    @Test
+    public void dotDot() throws IOException {
+        FileNode root;
+        FileNode dest;
+        String str;
+
+        root = WORLD.getTemp().createTempDirectory();
+        root.join("x").writeString("evil");
+        dest = WORLD.getTemp().createTempDirectory().join("dest").mkdir();
+        str = Tar.fromFiles(root.join("a").mkdir(), List.of("../x"));
+        assertTrue(assertThrows(IOException.class, () -> Tar.extract(str, dest)).getMessage().startsWith("invalid path"));
+        assertFalse(dest.getParent().join("x").exists());
+    }
 }